@@ -0,0 +1,229 @@
+import benchmarks.App;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The benchmarks' way into the application classes (see benchmarks.App). In the default
+ * package, like them, so it also reaches Populate's package-private parsing methods.
+ */
+public class AppBridge implements App {
+
+    // Where the application's progress messages go while it is being timed
+    private static final PrintStream DISCARD = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+    });
+
+    // Most columns of a table (movies)
+    private static final int MAX_COLUMNS = 9;
+    // Rows per round trip when reading search results, as hw3 does at most
+    private static final int FETCH_SIZE = 500;
+
+    // Typical searches, by the name the benchmarks use
+    private static final Map<String, SearchCriteria> SEARCHES = new LinkedHashMap<>();
+
+    static {
+        SEARCHES.put("all", new SearchCriteria());
+
+        SearchCriteria genre = new SearchCriteria();
+        genre.genres.add("Drama");
+        SEARCHES.put("genre", genre);
+
+        SearchCriteria allGenres = new SearchCriteria();
+        allGenres.genres.addAll(Arrays.asList("Action", "Adventure", "Sci-Fi"));
+        allGenres.allGenres = true;
+        SEARCHES.put("allGenres", allGenres);
+
+        SearchCriteria countries = new SearchCriteria();
+        countries.countries.addAll(Arrays.asList("France", "Italy"));
+        SEARCHES.put("countries", countries);
+
+        SearchCriteria director = new SearchCriteria();
+        director.director = "Steven Spielberg";
+        SEARCHES.put("director", director);
+
+        SearchCriteria actors = new SearchCriteria();
+        actors.actors.addAll(Arrays.asList("Tom Hanks", "Meg Ryan"));
+        actors.allActors = true;
+        SEARCHES.put("actors", actors);
+
+        SearchCriteria ratings = new SearchCriteria();
+        ratings.ratingOp = ">=";
+        ratings.ratingValue = "7.5";
+        ratings.countOp = ">";
+        ratings.countValue = "100";
+        SEARCHES.put("ratings", ratings);
+
+        SearchCriteria years = new SearchCriteria();
+        years.fromYear = "1990";
+        years.toYear = "1999";
+        SEARCHES.put("years", years);
+
+        SearchCriteria userRatings = new SearchCriteria();
+        userRatings.userId = "75";
+        userRatings.fromDate = "01/01/2005";
+        userRatings.toDate = "12/31/2008";
+        userRatings.userRatingOp = ">";
+        userRatings.userRatingValue = "3";
+        SEARCHES.put("userRatings", userRatings);
+
+        SearchCriteria tags = new SearchCriteria();
+        tags.tags = "classic,funny";
+        SEARCHES.put("tags", tags);
+
+        SearchCriteria everything = new SearchCriteria();
+        everything.genres.addAll(allGenres.genres);
+        everything.countries.add("USA");
+        everything.actors.addAll(actors.actors);
+        everything.ratingOp = ">=";
+        everything.ratingValue = "6";
+        everything.fromYear = "1980";
+        everything.toYear = "2010";
+        everything.userId = "75";
+        everything.tags = "classic";
+        everything.and = false;
+        SEARCHES.put("everything", everything);
+    }
+
+    @Override
+    public int parse(String fileName, ByteBuffer data) throws IOException {
+        Populate populate = new Populate();
+        // The data files are ASCII or ISO-8859-1 (see Populate's encodings)
+        FieldTokenizer tokenizer = new FieldTokenizer(data, StandardCharsets.ISO_8859_1);
+        tokenizer.next(); // Ignore headers
+        ImportRow row = new ImportRow(MAX_COLUMNS);
+        int rows = 0;
+        while (populate.nextRow(fileName, tokenizer, row)) {
+            rows++;
+        }
+        return rows;
+    }
+
+    @Override
+    public Object criteria(String search) {
+        SearchCriteria criteria = SEARCHES.get(search);
+        if (criteria == null) {
+            throw new IllegalArgumentException("Unknown search " + search + ", expected one of " + SEARCHES.keySet());
+        }
+        return criteria.normalized();
+    }
+
+    @Override
+    public String buildQuery(Object criteria, boolean joinFree) {
+        return new QueryBuilder((SearchCriteria) criteria, joinFree).build().getSql();
+    }
+
+    @Override
+    public void createSchema(Connection con) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            stmt.execute("DROP ALL OBJECTS");
+        }
+        EmbeddedDatabase.ensureSchema(con);
+    }
+
+    @Override
+    public void importFiles(String url, String... files) {
+        System.setProperty("db.url", url);
+        // Populate reports every file and chunk; keep the benchmark output readable
+        PrintStream out = System.out;
+        System.setOut(DISCARD);
+        try {
+            new Populate().run(files.clone());
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+
+    @Override
+    public void writeSnapshot(File snapshot, String... files) throws IOException {
+        DatasetSnapshot.write(snapshot, Arrays.asList(files));
+    }
+
+    @Override
+    public int loadIndex(File snapshot) throws IOException {
+        PrintStream out = System.out;
+        System.setOut(DISCARD);
+        try {
+            return MovieIndex.load(DatasetSnapshot.open(snapshot)).size();
+        }
+        finally {
+            System.setOut(out);
+        }
+    }
+
+    @Override
+    public int readSnapshot(File snapshot, String fileName) throws IOException {
+        DatasetSnapshot.Table table = DatasetSnapshot.open(snapshot).table(fileName);
+        ImportPipeline.RowParser rows = table.rows();
+        ImportRow row = new ImportRow(table.getColumnCount());
+        int count = 0;
+        while (rows.next(row)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public List<String> names(String fileName, int column) throws IOException {
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream("data/" + fileName), StandardCharsets.ISO_8859_1))) {
+            br.readLine(); // Ignore headers
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length > column && !fields[column].isEmpty()) {
+                    names.add(fields[column]);
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    @Override
+    public Object nameIndex(List<String> names) {
+        return new NameIndex(names);
+    }
+
+    @Override
+    public List<String> complete(Object nameIndex, String prefix, int limit) {
+        return ((NameIndex) nameIndex).complete(prefix, limit);
+    }
+
+    @Override
+    public int search(Connection con, Object criteria, boolean joinFree, boolean summary) throws SQLException {
+        SqlQuery query = new QueryBuilder((SearchCriteria) criteria, joinFree, SqlDialect.of(con), summary).build();
+        try (PreparedStatement ps = con.prepareStatement(query.getSql())) {
+            query.bind(ps);
+            ps.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultColumns rows = new ResultColumns(ResultColumns.kinds(rs.getMetaData()), FETCH_SIZE);
+                while (rs.next()) {
+                    rows.read(rs);
+                }
+                return rows.size();
+            }
+        }
+    }
+}
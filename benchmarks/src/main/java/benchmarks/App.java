@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * What the benchmarks call in the application. Its classes are in the default package, which
+ * code in a named package (JMH requires one) cannot refer to, so the calls go through
+ * AppBridge, a default-package class implementing this interface.
+ */
+public interface App {
+
+    static App load() {
+        try {
+            return (App) Class.forName("AppBridge").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load AppBridge", e);
+        }
+    }
+
+    // Parses every line of a .dat file the way Populate does; returns the number of rows
+    int parse(String fileName, ByteBuffer data) throws IOException;
+
+    // The SearchCriteria of a sample search (see AppBridge.SEARCHES), normalized as hw3 does
+    Object criteria(String search);
+
+    // The SQL hw3 builds for the criteria
+    String buildQuery(Object criteria, boolean joinFree);
+
+    // Drops everything in the H2 database of con and creates the tables of EmbeddedDatabase
+    void createSchema(Connection con) throws SQLException;
+
+    // Runs Populate on the files of data/ against the database at url
+    void importFiles(String url, String... files);
+
+    // Writes a DatasetSnapshot of the files of data/
+    void writeSnapshot(File snapshot, String... files) throws IOException;
+
+    // Maps the snapshot and builds the in-memory index from it; returns the number of movies
+    int loadIndex(File snapshot) throws IOException;
+
+    // Maps the snapshot and reads every row of the file's table into an ImportRow, as Populate
+    // does; returns the number of rows
+    int readSnapshot(File snapshot, String fileName) throws IOException;
+
+    // Distinct values of a column of a file of data/, e.g. the names of movie_directors.dat
+    List<String> names(String fileName, int column) throws IOException;
+
+    // A NameIndex over the names, as the type-ahead fields build it
+    Object nameIndex(List<String> names);
+
+    // The completions of prefix in the NameIndex, at most limit, as a type-ahead field asks
+    List<String> complete(Object nameIndex, String prefix, int limit);
+
+    // Runs the search, on movie_summary if summary, and reads every row the way hw3 does;
+    // returns the number of rows
+    int search(Connection con, Object criteria, boolean joinFree, boolean summary) throws SQLException;
+}
@@ -0,0 +1,23 @@
+package benchmarks;
+
+/**
+ * The bundled data files and the embedded database the benchmarks load them into.
+ * Run the benchmarks from the repository root, where Populate finds data/.
+ */
+final class Data {
+
+    // The files of data/ that Populate imports, parents first
+    static final String[] FILES = {"movies.dat", "tags.dat", "movie_countries.dat", "movie_directors.dat",
+            "movie_genres.dat", "user_taggedmovies-timestamps.dat"};
+
+    private Data() {
+    }
+
+    // An in-memory H2 database in Oracle mode, kept until the JVM exits. Its tables are those of
+    // EmbeddedDatabase (see App.createSchema). H2 would otherwise hand a query run again on
+    // unchanged tables its previous result, and the searches would measure that
+    static String url(String name) {
+        return "jdbc:h2:mem:" + name + ";MODE=Oracle;NON_KEYWORDS=YEAR,VALUE;DB_CLOSE_DELAY=-1"
+                + ";OPTIMIZE_REUSE_RESULTS=FALSE";
+    }
+}
@@ -0,0 +1,47 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for Populate to import every bundled data file into empty tables of an embedded H2
+ * database in Oracle mode. Each run starts from a fresh schema.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImportBenchmark {
+
+    private static final String URL = Data.url("import");
+
+    private App app;
+    private Connection con; // Keeps the in-memory database open
+
+    @Setup(Level.Trial)
+    public void open() throws SQLException {
+        app = App.load();
+        con = DriverManager.getConnection(URL);
+    }
+
+    @Setup(Level.Iteration)
+    public void emptyTables() throws SQLException {
+        app.createSchema(con);
+    }
+
+    @Benchmark
+    public void importAll() {
+        app.importFiles(URL, Data.FILES);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws SQLException {
+        con.close();
+    }
+}
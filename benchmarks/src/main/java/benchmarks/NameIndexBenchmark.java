@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of a NameIndex lookup as the type-ahead fields make it (10 completions per keystroke),
+ * for prefixes of 1 to 5 characters taken from the start of a name or of one of its later
+ * words. The names are those of data/movie_directors.dat; -p file=movie_actors.dat times the
+ * actors instead, if that file is in data/.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameIndexBenchmark {
+
+    // Prefixes cycled through, a power of two
+    private static final int PREFIXES = 4096;
+
+    @Param({"movie_directors.dat"})
+    public String file;
+
+    @Param({"1", "3", "5"})
+    public int prefixLength;
+
+    private App app;
+    private Object index;
+    private final String[] prefixes = new String[PREFIXES];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        app = App.load();
+        List<String> names = app.names(file, 2);
+        index = app.nameIndex(names);
+        Random random = new Random(42);
+        for (int i = 0; i < PREFIXES; i++) {
+            String[] words = names.get(random.nextInt(names.size())).split(" ");
+            String word = words[random.nextInt(words.length)];
+            prefixes[i] = word.substring(0, Math.min(prefixLength, word.length()));
+        }
+    }
+
+    @Benchmark
+    public List<String> complete() {
+        String prefix = prefixes[next];
+        next = (next + 1) & (PREFIXES - 1);
+        return app.complete(index, prefix, 10);
+    }
+}
@@ -0,0 +1,40 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to tokenize a whole data file and turn each line into a row (Populate.processLine),
+ * without the database. The file is read into memory first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"movies.dat", "tags.dat", "movie_countries.dat", "movie_directors.dat", "movie_genres.dat",
+            "user_taggedmovies-timestamps.dat"})
+    public String file;
+
+    private App app;
+    private ByteBuffer data;
+
+    @Setup
+    public void setUp() throws IOException {
+        app = App.load();
+        data = ByteBuffer.wrap(Files.readAllBytes(Paths.get("data", file)));
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        return app.parse(file, data.duplicate());
+    }
+}
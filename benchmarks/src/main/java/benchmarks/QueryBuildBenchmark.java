@@ -0,0 +1,38 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build the SQL of a search from typical criteria combinations, in both query modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuildBenchmark {
+
+    @Param({"all", "genre", "allGenres", "countries", "director", "actors", "ratings", "years", "userRatings",
+            "tags", "everything"})
+    public String search;
+
+    @Param({"false", "true"})
+    public boolean joinFree;
+
+    private App app;
+    private Object criteria;
+
+    @Setup
+    public void setUp() {
+        app = App.load();
+        criteria = app.criteria(search);
+    }
+
+    @Benchmark
+    public String build() {
+        return app.buildQuery(criteria, joinFree);
+    }
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to run a search and read all its rows, in each query mode (base, join-free and on
+ * movie_summary), against an embedded H2 database in Oracle mode loaded with the bundled data
+ * files by Populate, which also fills movie_summary.
+ * Base-mode searches take seconds each on H2, hence few iterations. The whole catalogue is left
+ * out (minutes).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final String URL = Data.url("search");
+
+    @Param({"allGenres", "countries", "director", "ratings", "years", "tags"})
+    public String search;
+
+    @Param({"base", "joinFree", "summary"})
+    public String query;
+
+    private App app;
+    private Connection con;
+    private Object criteria;
+
+    @Setup(Level.Trial)
+    public void load() throws SQLException {
+        app = App.load();
+        con = DriverManager.getConnection(URL);
+        app.createSchema(con);
+        app.importFiles(URL, Data.FILES);
+        criteria = app.criteria(search);
+    }
+
+    @Benchmark
+    public int search() throws SQLException {
+        return app.search(con, criteria, query.equals("joinFree"), query.equals("summary"));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws SQLException {
+        con.close();
+    }
+}
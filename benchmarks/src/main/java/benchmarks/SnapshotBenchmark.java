@@ -0,0 +1,49 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to map a DatasetSnapshot of data/ and build hw3's in-memory index from it (the
+ * -Dhw3.snapshot start-up), and to read every row of one of its tables as Populate does with
+ * -Dpopulate.snapshot; compare the latter with ParseBenchmark on the same file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    private App app;
+    private File snapshot;
+
+    @Setup(Level.Trial)
+    public void write() throws IOException {
+        app = App.load();
+        snapshot = File.createTempFile("moviedb", ".snapshot");
+        snapshot.deleteOnExit();
+        app.writeSnapshot(snapshot, Data.FILES);
+    }
+
+    @Benchmark
+    public int loadIndex() throws IOException {
+        return app.loadIndex(snapshot);
+    }
+
+    @Benchmark
+    public int readRows(Table table) throws IOException {
+        return app.readSnapshot(snapshot, table.file);
+    }
+
+    // The file readRows reads; loadIndex always reads them all
+    @State(Scope.Benchmark)
+    public static class Table {
+        @Param({"movies.dat", "user_taggedmovies-timestamps.dat"})
+        public String file;
+    }
+}
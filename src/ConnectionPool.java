@@ -0,0 +1,395 @@
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of database connections shared by the threads of hw3 and Populate.
+ * Connections are opened when first needed, up to the pool size, and handed back to the pool
+ * when the borrower closes them, so a worker pays for connection setup at most once.
+ * A connection idle for more than a second is validated before it is lent again; one that
+ * fails is replaced. Each connection keeps its own StatementCache: preparing the same SQL
+ * again returns the already prepared statement, whose close() only puts it back.
+ * Statements get db.fetchSize rows per round trip unless the caller sets another fetch size.
+ * Options: -Ddb.poolSize=N (default set by the program), -Ddb.fetchSize=N (default 100),
+ * -Ddb.statementCacheSize=N per connection (default 32), -Ddb.borrowTimeout=S seconds to wait
+ * for a free connection (default 30), -Ddb.validationTimeout=S seconds (default 5).
+ * -Ddb.url (with -Ddb.user and -Ddb.password) connects to that database instead of the Oracle
+ * one of src/connection.txt; its driver must be on the class path. -Ddb.embedded=true connects to
+ * the H2 database of EmbeddedDatabase. getDialect() tells which SQL the database speaks.
+ */
+public class ConnectionPool implements DataSource {
+
+    private static final String DRIVER = "oracle.jdbc.OracleDriver";
+    // Connections used more recently than this are lent without validation
+    private static final long VALIDATE_AFTER_MILLIS = 1000;
+
+    private final String url;
+    private final String userName;
+    private final String password;
+    private final int maxSize;
+    private final int fetchSize = Integer.getInteger("db.fetchSize", 100);
+    private final int statementCacheSize = Integer.getInteger("db.statementCacheSize", 32);
+    private final long borrowTimeout = Long.getLong("db.borrowTimeout", 30);
+    private final int validationTimeout = Integer.getInteger("db.validationTimeout", 5);
+    // One permit per connection that may be lent
+    private final Semaphore permits;
+    private final ArrayDeque<Pooled> idle = new ArrayDeque<>();
+    private final ArrayList<Pooled> all = new ArrayList<>(); // Open connections, idle or lent
+    private boolean closed;
+    private int opened;
+    private int borrowed;
+    private int replaced;
+
+    public ConnectionPool(String url, String userName, String password, int maxSize) {
+        this.url = url;
+        this.userName = userName;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.permits = new Semaphore(this.maxSize, true);
+    }
+
+    /**
+     * Pool of up to db.poolSize (else defaultSize) connections to the database named in
+     * src/connection.txt, or to the defaults of the program if the file cannot be read.
+     * db.embedded or db.url, if set, take precedence over both
+     */
+    public static ConnectionPool fromConnectionFile(String program, int defaultSize) throws ClassNotFoundException {
+        int size = Integer.getInteger("db.poolSize", defaultSize);
+        String url = EmbeddedDatabase.isEnabled() ? EmbeddedDatabase.url() : System.getProperty("db.url");
+        if (url != null) {
+            // The driver registers itself when found on the class path
+            System.out.println("Connecting to: " + url);
+            return new ConnectionPool(url, System.getProperty("db.user", ""), System.getProperty("db.password", ""),
+                    size);
+        }
+        Class.forName(DRIVER);
+        String host, port, dbName, userName, password;
+        try (BufferedReader br = new BufferedReader(new FileReader(new File("src/connection.txt")))) {
+            host = br.readLine().split(":")[1].trim();
+            port = br.readLine().split(":")[1].trim();
+            dbName = br.readLine().split(":")[1].trim();
+            userName = br.readLine().split(":")[1].trim();
+            password = br.readLine().split(":")[1].trim();
+        }
+        catch (IOException e) {
+            System.out.println("Connection.txt not found, using values defined in " + program + ".java");
+            host = "Johnny";
+            port = "1521";
+            dbName = "orcl";
+            userName = "scott";
+            password = "tiger";
+        }
+        String dbURL = "jdbc:oracle:thin:@" + host + ":" + port + ":" + dbName;
+        System.out.println("Connecting to: " + dbURL);
+        return new ConnectionPool(dbURL, userName, password, size);
+    }
+
+    // The SQL dialect of the database the pool connects to
+    public SqlDialect getDialect() {
+        return SqlDialect.forUrl(url);
+    }
+
+    /**
+     * Lends a connection, waiting up to db.borrowTimeout seconds if all are in use.
+     * Closing it returns it to the pool, rolled back and in auto-commit mode
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.SECONDS)) {
+                throw new SQLException("No free connection after " + borrowTimeout + "s (pool size " + maxSize
+                        + ", see db.poolSize)", "08001");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", "08001", e);
+        }
+        try {
+            Pooled pooled = take();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Lease(pooled));
+        }
+        catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // An idle connection that is still usable, or a new one
+    private Pooled take() throws SQLException {
+        while (true) {
+            Pooled pooled;
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed", "08003");
+                }
+                pooled = idle.pollFirst(); // Most recently used, the likeliest to still be open
+            }
+            if (pooled == null) {
+                Pooled opening = new Pooled(DriverManager.getConnection(url, userName, password));
+                synchronized (this) {
+                    all.add(opening);
+                    opened++;
+                    borrowed++;
+                }
+                return opening;
+            }
+            if (System.currentTimeMillis() - pooled.lastUsed < VALIDATE_AFTER_MILLIS || isValid(pooled)) {
+                synchronized (this) {
+                    borrowed++;
+                }
+                return pooled;
+            }
+            synchronized (this) {
+                replaced++;
+            }
+            pooled.close();
+        }
+    }
+
+    private boolean isValid(Pooled pooled) {
+        try {
+            return pooled.con.isValid(validationTimeout);
+        }
+        catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Puts a connection the borrower closed back in the pool, or closes it if it cannot be reused
+    private void giveBack(Pooled pooled) {
+        boolean reusable;
+        try {
+            if (!pooled.con.getAutoCommit()) {
+                pooled.con.rollback();
+                pooled.con.setAutoCommit(true);
+            }
+            reusable = !pooled.con.isClosed();
+        }
+        catch (SQLException e) {
+            reusable = false;
+        }
+        pooled.lastUsed = System.currentTimeMillis();
+        synchronized (this) {
+            if (reusable && !closed) {
+                idle.addFirst(pooled);
+                pooled = null;
+            }
+        }
+        if (pooled != null) {
+            pooled.close();
+        }
+        permits.release();
+    }
+
+    // Closes the idle connections; connections in use are closed when they are returned
+    public void close() {
+        ArrayDeque<Pooled> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayDeque<>(idle);
+            idle.clear();
+        }
+        for (Pooled pooled : toClose) {
+            pooled.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        int hits = 0, misses = 0;
+        for (Pooled pooled : all) {
+            // Read without the owner's lock: close enough for a report
+            hits += pooled.statements.getHits();
+            misses += pooled.statements.getMisses();
+        }
+        return String.format("Connection pool: %d opened (max %d), %d borrowed, %d replaced, "
+                + "statement cache %d hits, %d misses", opened, maxSize, borrowed, replaced, hits, misses);
+    }
+
+    // A connection of the pool and its prepared statements
+    private class Pooled {
+        final Connection con;
+        final StatementCache statements;
+        long lastUsed = System.currentTimeMillis();
+
+        Pooled(Connection con) {
+            this.con = con;
+            this.statements = new StatementCache(con, statementCacheSize);
+        }
+
+        void close() {
+            synchronized (ConnectionPool.this) {
+                all.remove(this);
+            }
+            statements.clear();
+            try {
+                con.close();
+            }
+            catch (SQLException e) {
+                System.err.println("Cannot close connection: " + e.getMessage());
+            }
+        }
+    }
+
+    // The connection as seen by one borrower, until it closes it
+    private class Lease implements InvocationHandler {
+        private final Pooled pooled;
+        private boolean returned;
+
+        Lease(Pooled pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        giveBack(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.con.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled " + pooled.con;
+            }
+            if (returned) {
+                throw new SQLException("Connection was returned to the pool", "08003");
+            }
+            if (name.equals("prepareStatement") && args.length == 1) {
+                PreparedStatement ps = pooled.statements.get((String) args[0]);
+                if (fetchSize > 0) {
+                    ps.setFetchSize(fetchSize);
+                }
+                return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                        new Class<?>[]{PreparedStatement.class}, new CachedStatement(ps, (Connection) proxy));
+            }
+            Object result = delegate(pooled.con, method, args);
+            if (result instanceof Statement && fetchSize > 0) {
+                ((Statement) result).setFetchSize(fetchSize);
+            }
+            return result;
+        }
+    }
+
+    // A statement of the cache as seen by one borrower; closing it keeps it prepared
+    private static class CachedStatement implements InvocationHandler {
+        private final PreparedStatement ps;
+        private final Connection con;
+        private boolean closed;
+
+        CachedStatement(PreparedStatement ps, Connection con) {
+            this.ps = ps;
+            this.con = con;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        // Leave nothing behind for the next borrower
+                        ps.clearBatch();
+                        ps.clearParameters();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || ps.isClosed();
+                case "getConnection":
+                    return con;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached " + ps;
+            }
+            if (closed) {
+                throw new SQLException("Statement is closed");
+            }
+            return delegate(ps, method, args);
+        }
+    }
+
+    private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    //=========================================================================
+    // Rest of DataSource: connections are always those of the pool
+
+    @Override
+    public Connection getConnection(String userName, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The pool connects as " + this.userName);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper of " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
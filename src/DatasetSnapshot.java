@@ -0,0 +1,572 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The rows of the data/*.dat files, converted once into one binary file that is memory-mapped
+ * instead of parsed: java DatasetSnapshot [snapshot file] (default data/moviedb.snapshot).
+ * Each file becomes a table holding the rows Populate inserts for it (see processLine), stored
+ * column by column: ids, years and counts as 4-byte ints, ratings as 8-byte doubles, and text
+ * (titles, genres, countries, tags, names, dates) as 4-byte codes into a sorted dictionary
+ * shared by the tables, so "Drama" is stored once, not 5000 times. Populate imports from it with
+ * -Dpopulate.snapshot, and hw3 loads its in-memory index from it with -Dhw3.snapshot.
+ *
+ * Layout, big-endian, every array 8-byte aligned:
+ *   "MVDBSNAP", int version
+ *   int dictionaries, each: name, int count, int byteLength, int[count + 1] offsets, UTF-8 bytes
+ *   int tables, each: file name, long length and long last-modified time of the file it was
+ *   built from, int rows, int columns, each: name, byte kind, dictionary name ("" if none), values
+ * Names are a short length and UTF-8 bytes. NULL is Integer.MIN_VALUE for INT, NaN for DOUBLE
+ * and code -1 for STRING.
+ */
+public class DatasetSnapshot {
+
+    public static final int VERSION = 1;
+    public static final String DEFAULT_FILE = "data/moviedb.snapshot";
+
+    private static final byte[] MAGIC = "MVDBSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final byte INT = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte STRING = 3;
+    private static final int NULL_INT = Integer.MIN_VALUE;
+
+    // The columns of the table of each file, as Populate fills them from its lines
+    private static final Map<String, Column[]> TABLES = new LinkedHashMap<>();
+
+    static {
+        TABLES.put("movies.dat", new Column[]{
+                new Column("movie_id", INT), new Column("title", "titles"), new Column("year", INT),
+                new Column("rtAllCriticsRating", DOUBLE), new Column("rtAllCriticsNumReviews", INT),
+                new Column("rtTopCriticsRating", DOUBLE), new Column("rtTopCriticsNumReviews", INT),
+                new Column("rtAudienceRating", DOUBLE), new Column("rtAudienceNumReviews", INT)});
+        TABLES.put("tags.dat", new Column[]{new Column("tag_id", INT), new Column("value", "tags")});
+        TABLES.put("movie_genres.dat", new Column[]{new Column("movie_id", INT), new Column("genre", "genres")});
+        TABLES.put("movie_countries.dat",
+                new Column[]{new Column("movie_id", INT), new Column("country", "countries")});
+        TABLES.put("movie_directors.dat",
+                new Column[]{new Column("movie_id", INT), new Column("director_name", "names")});
+        TABLES.put("movie_actors.dat", new Column[]{new Column("movie_id", INT), new Column("actor_name", "names")});
+        for (String file : new String[]{"user_taggedmovies.dat", "user_taggedmovies-timestamps.dat"}) {
+            TABLES.put(file, new Column[]{new Column("user_id", INT), new Column("movie_id", INT),
+                    new Column("tag_id", INT)});
+        }
+        for (String file : new String[]{"user_ratedmovies.dat", "user_ratedmovies-timestamps.dat"}) {
+            TABLES.put(file, new Column[]{new Column("user_id", INT), new Column("movie_id", INT),
+                    new Column("rating", DOUBLE), new Column("date", "dates")});
+        }
+    }
+
+    private final File file;
+    private final Map<String, Dictionary> dictionaries = new HashMap<>();
+    private final Map<String, Table> tables = new LinkedHashMap<>();
+
+    private DatasetSnapshot(File file) {
+        this.file = file;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File out = new File(args.length > 0 ? args[0] : DEFAULT_FILE);
+        ArrayList<String> files = new ArrayList<>();
+        for (String name : TABLES.keySet()) {
+            if (new File("data/" + name).isFile()) {
+                files.add(name);
+            }
+        }
+        long start = System.nanoTime();
+        write(out, files);
+        System.out.printf("Wrote %s (%d files, %d bytes) in %.2fs%n", out, files.size(), out.length(),
+                (System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        DatasetSnapshot snapshot = open(out);
+        System.out.printf("Mapped it in %.1f ms:%n", (System.nanoTime() - start) / 1e6);
+        for (Table table : snapshot.tables.values()) {
+            System.out.printf("  %-34s %8d rows%n", table.fileName, table.size());
+        }
+    }
+
+    //=========================================================================
+    // Writing
+
+    /**
+     * Parses the given files of data/ the way Populate does and writes their rows to out
+     */
+    public static void write(File out, Iterable<String> fileNames) throws IOException {
+        Populate populate = new Populate();
+        ArrayList<TableData> parsed = new ArrayList<>();
+        LinkedHashMap<String, TreeSet<String>> values = new LinkedHashMap<>();
+        for (String fileName : fileNames) {
+            Column[] columns = TABLES.get(fileName);
+            if (columns == null) {
+                System.out.println("Skipping " + fileName + ": not a file Populate imports");
+                continue;
+            }
+            File source = new File("data/" + fileName);
+            TableData table = new TableData(fileName, columns, source.length(), source.lastModified());
+            try (FileInputStream in = new FileInputStream(source)) {
+                FieldTokenizer tokenizer = new FieldTokenizer(in, populate.getEncoding(fileName));
+                tokenizer.next(); // Ignore headers
+                ImportRow row = new ImportRow(columns.length);
+                while (populate.nextRow(fileName, tokenizer, row)) {
+                    table.add(row);
+                }
+            }
+            for (int c = 0; c < columns.length; c++) {
+                if (columns[c].kind == STRING) {
+                    TreeSet<String> dictionary = values.computeIfAbsent(columns[c].dictionary, k -> new TreeSet<>());
+                    for (int r = 0; r < table.rows; r++) {
+                        String value = (String) ((Object[]) table.values[c])[r];
+                        if (value != null) {
+                            dictionary.add(value);
+                        }
+                    }
+                }
+            }
+            parsed.add(table);
+        }
+
+        // Codes are positions in the sorted values, so they compare like the strings
+        HashMap<String, HashMap<String, Integer>> codes = new HashMap<>();
+        File parent = out.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)))) {
+            dos.write(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(values.size());
+            for (Map.Entry<String, TreeSet<String>> dictionary : values.entrySet()) {
+                HashMap<String, Integer> dictionaryCodes = new HashMap<>(dictionary.getValue().size() * 2);
+                byte[][] encoded = new byte[dictionary.getValue().size()][];
+                int byteLength = 0;
+                for (String value : dictionary.getValue()) {
+                    int code = dictionaryCodes.size();
+                    dictionaryCodes.put(value, code);
+                    encoded[code] = value.getBytes(StandardCharsets.UTF_8);
+                    byteLength += encoded[code].length;
+                }
+                codes.put(dictionary.getKey(), dictionaryCodes);
+                writeName(dos, dictionary.getKey());
+                dos.writeInt(encoded.length);
+                dos.writeInt(byteLength);
+                pad(dos);
+                int offset = 0;
+                for (byte[] value : encoded) {
+                    dos.writeInt(offset);
+                    offset += value.length;
+                }
+                dos.writeInt(offset);
+                for (byte[] value : encoded) {
+                    dos.write(value);
+                }
+                pad(dos);
+            }
+            dos.writeInt(parsed.size());
+            for (TableData table : parsed) {
+                writeName(dos, table.fileName);
+                dos.writeLong(table.sourceLength);
+                dos.writeLong(table.sourceModified);
+                dos.writeInt(table.rows);
+                dos.writeInt(table.columns.length);
+                for (int c = 0; c < table.columns.length; c++) {
+                    Column column = table.columns[c];
+                    writeName(dos, column.name);
+                    dos.writeByte(column.kind);
+                    writeName(dos, column.kind == STRING ? column.dictionary : "");
+                    pad(dos);
+                    for (int r = 0; r < table.rows; r++) {
+                        switch (column.kind) {
+                            case INT:
+                                dos.writeInt(((int[]) table.values[c])[r]);
+                                break;
+                            case DOUBLE:
+                                dos.writeDouble(((double[]) table.values[c])[r]);
+                                break;
+                            default:
+                                String value = (String) ((Object[]) table.values[c])[r];
+                                dos.writeInt(value == null ? -1 : codes.get(column.dictionary).get(value));
+                        }
+                    }
+                    pad(dos);
+                }
+            }
+        }
+    }
+
+    private static void writeName(DataOutputStream dos, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        dos.writeShort(bytes.length);
+        dos.write(bytes);
+    }
+
+    // Zeros up to the next multiple of 8 bytes
+    private static void pad(DataOutputStream dos) throws IOException {
+        while (dos.size() % 8 != 0) {
+            dos.writeByte(0);
+        }
+    }
+
+    //=========================================================================
+    // Reading
+
+    /**
+     * Maps the snapshot. Only the table of contents is read; values are read from the mapping
+     * when asked for, and text is decoded once per dictionary entry
+     */
+    public static DatasetSnapshot open(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        DatasetSnapshot snapshot = new DatasetSnapshot(file);
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(file + " is not a dataset snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is a version " + version + " snapshot, expected " + VERSION
+                        + ": rebuild it with java DatasetSnapshot");
+            }
+            int dictionaries = buffer.getInt();
+            for (int d = 0; d < dictionaries; d++) {
+                String name = readName(buffer);
+                int count = buffer.getInt();
+                int byteLength = buffer.getInt();
+                align(buffer);
+                int offsets = buffer.position();
+                int bytes = offsets + 4 * (count + 1);
+                snapshot.dictionaries.put(name, new Dictionary(buffer, count, offsets, bytes));
+                buffer.position(bytes + byteLength);
+                align(buffer);
+            }
+            int tables = buffer.getInt();
+            for (int t = 0; t < tables; t++) {
+                String fileName = readName(buffer);
+                long sourceLength = buffer.getLong();
+                long sourceModified = buffer.getLong();
+                int rows = buffer.getInt();
+                Column[] columns = new Column[buffer.getInt()];
+                int[] starts = new int[columns.length];
+                for (int c = 0; c < columns.length; c++) {
+                    String name = readName(buffer);
+                    byte kind = buffer.get();
+                    String dictionary = readName(buffer);
+                    columns[c] = kind == STRING ? new Column(name, dictionary) : new Column(name, kind);
+                    align(buffer);
+                    starts[c] = buffer.position();
+                    buffer.position(starts[c] + rows * (kind == DOUBLE ? 8 : 4));
+                    align(buffer);
+                }
+                snapshot.tables.put(fileName, snapshot.new Table(fileName, sourceLength, sourceModified, rows,
+                        columns, starts, buffer));
+            }
+        }
+        catch (RuntimeException e) {
+            // Truncated or corrupt: positions past the end of the mapping
+            throw new IOException(file + " is damaged: " + e, e);
+        }
+        return snapshot;
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void align(ByteBuffer buffer) {
+        buffer.position((buffer.position() + 7) & ~7);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // The table of the file, or null if the snapshot does not have it
+    public Table table(String fileName) {
+        return tables.get(fileName);
+    }
+
+    // True if every table of the snapshot is up to date with its file (see below)
+    public boolean isCurrent() {
+        for (String fileName : tables.keySet()) {
+            if (!isCurrent(fileName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if the snapshot has the table of the file and was built from the file as it is now in
+     * data/ (or the file is no longer there, leaving the snapshot as the only copy)
+     */
+    public boolean isCurrent(String fileName) {
+        Table table = tables.get(fileName);
+        if (table == null) {
+            return false;
+        }
+        File source = new File("data/" + fileName);
+        return !source.exists()
+                || (source.length() == table.sourceLength && source.lastModified() == table.sourceModified);
+    }
+
+    /**
+     * The rows of one .dat file, column by column
+     */
+    public class Table {
+        private final String fileName;
+        private final long sourceLength;
+        private final long sourceModified;
+        private final int rows;
+        private final Column[] columns;
+        private final int[] starts; // Position of the values of each column
+        private final ByteBuffer buffer;
+
+        Table(String fileName, long sourceLength, long sourceModified, int rows, Column[] columns, int[] starts,
+              ByteBuffer buffer) {
+            this.fileName = fileName;
+            this.sourceLength = sourceLength;
+            this.sourceModified = sourceModified;
+            this.rows = rows;
+            this.columns = columns;
+            this.starts = starts;
+            this.buffer = buffer;
+        }
+
+        public int size() {
+            return rows;
+        }
+
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        // Position of the named column; throws IllegalArgumentException if there is none
+        public int column(String name) {
+            for (int c = 0; c < columns.length; c++) {
+                if (columns[c].name.equalsIgnoreCase(name)) {
+                    return c;
+                }
+            }
+            throw new IllegalArgumentException(fileName + " has no column " + name);
+        }
+
+        public boolean isNull(int row, int column) {
+            switch (columns[column].kind) {
+                case INT:
+                    return getInt(row, column) == NULL_INT;
+                case DOUBLE:
+                    return Double.isNaN(getDouble(row, column));
+                default:
+                    return getCode(row, column) < 0;
+            }
+        }
+
+        public int getInt(int row, int column) {
+            return buffer.getInt(starts[column] + 4 * row);
+        }
+
+        public double getDouble(int row, int column) {
+            return buffer.getDouble(starts[column] + 8 * row);
+        }
+
+        // Dictionary code of a text value, -1 if NULL
+        public int getCode(int row, int column) {
+            return buffer.getInt(starts[column] + 4 * row);
+        }
+
+        public String getString(int row, int column) {
+            int code = getCode(row, column);
+            return code < 0 ? null : dictionary(column).get(code);
+        }
+
+        // The dictionary of a text column
+        public Dictionary dictionary(int column) {
+            return dictionaries.get(columns[column].dictionary);
+        }
+
+        /**
+         * The rows in order as a source of ImportRows for Populate, in place of parsing the file
+         */
+        public ImportPipeline.RowParser rows() {
+            int[] next = {0};
+            return row -> {
+                if (next[0] == rows) {
+                    return false;
+                }
+                read(next[0]++, row);
+                return true;
+            };
+        }
+
+        // Copies a row into an ImportRow with the same columns
+        public void read(int row, ImportRow target) {
+            for (int c = 0; c < columns.length; c++) {
+                switch (columns[c].kind) {
+                    case INT: {
+                        int value = getInt(row, c);
+                        if (value == NULL_INT) {
+                            target.setNull(c);
+                        }
+                        else target.setLong(c, value);
+                        break;
+                    }
+                    case DOUBLE: {
+                        double value = getDouble(row, c);
+                        if (Double.isNaN(value)) {
+                            target.setNull(c);
+                        }
+                        else target.setDouble(c, value);
+                        break;
+                    }
+                    default: {
+                        String value = getString(row, c);
+                        if (value == null) {
+                            target.setNull(c);
+                        }
+                        else target.setString(c, value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorted distinct values of text columns; a code is a position in it
+     */
+    public static class Dictionary {
+        private final ByteBuffer buffer;
+        private final int count;
+        private final int offsets;
+        private final int bytes;
+        // Decoded values. Filled as they are asked for, possibly twice by racing threads: harmless
+        private final String[] decoded;
+
+        Dictionary(ByteBuffer buffer, int count, int offsets, int bytes) {
+            this.buffer = buffer;
+            this.count = count;
+            this.offsets = offsets;
+            this.bytes = bytes;
+            this.decoded = new String[count];
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public String get(int code) {
+            String value = decoded[code];
+            if (value == null) {
+                int start = buffer.getInt(offsets + 4 * code);
+                byte[] utf8 = new byte[buffer.getInt(offsets + 4 * code + 4) - start];
+                ByteBuffer view = buffer.duplicate();
+                view.position(bytes + start);
+                view.get(utf8);
+                value = new String(utf8, StandardCharsets.UTF_8);
+                decoded[code] = value;
+            }
+            return value;
+        }
+    }
+
+    private static class Column {
+        final String name;
+        final byte kind;
+        final String dictionary; // Of STRING columns
+
+        Column(String name, byte kind) {
+            this.name = name;
+            this.kind = kind;
+            this.dictionary = null;
+        }
+
+        Column(String name, String dictionary) {
+            this.name = name;
+            this.kind = STRING;
+            this.dictionary = dictionary;
+        }
+    }
+
+    // Rows of a file being parsed, column by column
+    private static class TableData {
+        final String fileName;
+        final Column[] columns;
+        final long sourceLength;
+        final long sourceModified;
+        final Object[] values; // int[], double[] or Object[] (Strings) per column
+        int rows;
+        int capacity = 1024;
+
+        TableData(String fileName, Column[] columns, long sourceLength, long sourceModified) {
+            this.fileName = fileName;
+            this.columns = columns;
+            this.sourceLength = sourceLength;
+            this.sourceModified = sourceModified;
+            this.values = new Object[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                values[c] = newArray(columns[c].kind, capacity);
+            }
+        }
+
+        void add(ImportRow row) throws IOException {
+            if (rows == capacity) {
+                capacity *= 2;
+                for (int c = 0; c < columns.length; c++) {
+                    Object grown = newArray(columns[c].kind, capacity);
+                    System.arraycopy(values[c], 0, grown, 0, rows);
+                    values[c] = grown;
+                }
+            }
+            for (int c = 0; c < columns.length; c++) {
+                switch (columns[c].kind) {
+                    case INT: {
+                        long value = row.getLong(c);
+                        if (row.isNull(c)) {
+                            value = NULL_INT;
+                        }
+                        else if (value <= NULL_INT || value > Integer.MAX_VALUE) {
+                            throw new IOException(fileName + ": " + columns[c].name + " " + value
+                                    + " does not fit in an int");
+                        }
+                        ((int[]) values[c])[rows] = (int) value;
+                        break;
+                    }
+                    case DOUBLE:
+                        ((double[]) values[c])[rows] = row.isNull(c) ? Double.NaN : row.getDouble(c);
+                        break;
+                    default:
+                        ((Object[]) values[c])[rows] = row.getString(c);
+                }
+            }
+            rows++;
+        }
+
+        private static Object newArray(byte kind, int capacity) {
+            switch (kind) {
+                case INT:
+                    return new int[capacity];
+                case DOUBLE:
+                    return new double[capacity];
+                default:
+                    return new Object[capacity];
+            }
+        }
+    }
+}
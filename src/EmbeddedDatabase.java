@@ -0,0 +1,103 @@
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+
+/**
+ * The H2 database the programs use with -Ddb.embedded=true instead of the Oracle server: a file
+ * database in the db.embeddedPath directory (default moviedb-h2), opened by the driver inside the
+ * JVM, so a search is a local call rather than a network round trip. H2 runs in Oracle mode,
+ * which accepts the VARCHAR2/NUMBER tables of the assignment; the SQL that still differs comes
+ * from SqlDialect.H2. The first program to open the database creates the tables, and hw3 fills
+ * them from data/ with Populate if they are empty. AUTO_SERVER lets Populate load the database
+ * while hw3 has it open.
+ * Requires the H2 jar (h2-2.2.224.jar) on the class path.
+ */
+public class EmbeddedDatabase {
+
+    // The tables of the assignment. The indexes the searches filter on are IndexAdvisor's; the
+    // movie_id foreign keys are indexed by H2 itself. As in the Oracle schema, deleting a movie or
+    // tag does not delete the rows referencing it: Populate empties those tables itself
+    private static final String[][] TABLES = {
+            {"movies", "CREATE TABLE movies (movie_id NUMBER PRIMARY KEY, title VARCHAR2(300), year NUMBER,"
+                    + " rtAllCriticsRating NUMBER, rtAllCriticsNumReviews NUMBER, rtTopCriticsRating NUMBER,"
+                    + " rtTopCriticsNumReviews NUMBER, rtAudienceRating NUMBER, rtAudienceNumReviews NUMBER)"},
+            {"tags", "CREATE TABLE tags (tag_id NUMBER PRIMARY KEY, value VARCHAR2(300))"},
+            {"movie_genres", "CREATE TABLE movie_genres (movie_id NUMBER REFERENCES movies,"
+                    + " genre VARCHAR2(100))"},
+            {"movie_countries", "CREATE TABLE movie_countries (movie_id NUMBER REFERENCES movies,"
+                    + " country VARCHAR2(100))"},
+            {"movie_directors", "CREATE TABLE movie_directors (movie_id NUMBER REFERENCES movies,"
+                    + " director_name VARCHAR2(200))"},
+            {"movie_actors", "CREATE TABLE movie_actors (movie_id NUMBER REFERENCES movies,"
+                    + " actor_name VARCHAR2(200))"},
+            {"user_taggedmovies", "CREATE TABLE user_taggedmovies (user_id NUMBER,"
+                    + " movie_id NUMBER REFERENCES movies,"
+                    + " tag_id NUMBER REFERENCES tags)"},
+            {"user_ratedmovies", "CREATE TABLE user_ratedmovies (user_id NUMBER,"
+                    + " movie_id NUMBER REFERENCES movies, rating NUMBER, ts DATE)"},
+    };
+
+    // The files of data/ that fill the tables, parents first (Populate also orders them)
+    private static final String[] FILES = {"movies.dat", "tags.dat", "movie_genres.dat", "movie_countries.dat",
+            "movie_directors.dat", "movie_actors.dat", "user_taggedmovies-timestamps.dat",
+            "user_ratedmovies-timestamps.dat"};
+
+    private EmbeddedDatabase() {
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean("db.embedded");
+    }
+
+    public static String url() {
+        File dir = new File(System.getProperty("db.embeddedPath", "moviedb-h2"));
+        // H2 wants explicit paths; year and value are column names here, not keywords
+        return "jdbc:h2:" + new File(dir, "movies").getAbsolutePath()
+                + ";MODE=Oracle;NON_KEYWORDS=YEAR,VALUE;AUTO_SERVER=TRUE";
+    }
+
+    /**
+     * Creates the tables, and the indexes of IndexAdvisor, that do not exist yet
+     */
+    public static void ensureSchema(Connection con) throws SQLException {
+        for (String[] table : TABLES) {
+            try (ResultSet rs = con.getMetaData().getTables(null, null, table[0].toUpperCase(), null)) {
+                if (rs.next()) {
+                    continue;
+                }
+            }
+            try (Statement stmt = con.createStatement()) {
+                for (int i = 1; i < table.length; i++) {
+                    stmt.execute(table[i]);
+                }
+            }
+        }
+        IndexAdvisor.ensureIndexes(con, SqlDialect.H2);
+    }
+
+    /**
+     * Imports the files of data/ with Populate if the movies table is empty, i.e. on first use
+     */
+    public static void populateIfEmpty(ConnectionPool pool) throws SQLException {
+        try (Connection con = pool.getConnection()) {
+            ensureSchema(con);
+            try (Statement stmt = con.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM movies")) {
+                if (rs.next() && rs.getLong(1) > 0) {
+                    return;
+                }
+            }
+        }
+        ArrayList<String> files = new ArrayList<>();
+        for (String file : FILES) {
+            if (new File("data/" + file).isFile()) {
+                files.add(file);
+            }
+        }
+        System.out.println("Embedded database is empty, importing " + files + " from data/");
+        new Populate().run(files.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Splits a tab separated .dat file into fields without creating a String per line or per field.
+ * Lines are scanned in a reusable byte buffer and only the offsets of each field are kept;
+ * callers copy out the fields they need, parsing numbers straight from the bytes.
+ *
+ * The bytes are decoded with the file's charset only when getString is called, which is safe
+ * for the single byte ISO-8859-1 and US-ASCII files (and UTF-8, since tab and newline never
+ * occur inside a multi-byte character).
+ */
+public class FieldTokenizer {
+
+    // The "\N" marker used by the data files for missing values
+    private static final byte[] NULL_MARKER = {'\\', 'N'};
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    // Distinct values a pooled field keeps, enough for every actor name; later ones are not pooled
+    private static final int MAX_POOLED_VALUES = 1 << 17;
+
+    private final InputStream in;
+    private final ByteBuffer source; // Used instead of in when reading from memory, e.g. a mapped file
+    private final Charset charset;
+    private byte[] buf;
+    private int pos; // Start of the next unread line
+    private int limit; // End of the valid bytes in buf
+    private boolean eof;
+
+    // Offsets of the fields of the current line: field i is buf[starts[i], ends[i])
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private int fieldCount;
+
+    // Values of the fields read with getPooledString, by field; created on first use
+    private StringDictionary[] pools = new StringDictionary[0];
+
+    public FieldTokenizer(InputStream in, Charset charset) {
+        this(in, charset, 64 * 1024);
+    }
+
+    public FieldTokenizer(InputStream in, Charset charset, int bufferSize) {
+        this.in = in;
+        this.source = null;
+        this.charset = charset;
+        this.buf = new byte[bufferSize];
+    }
+
+    // Reads the lines between the position and the limit of source
+    public FieldTokenizer(ByteBuffer source, Charset charset) {
+        this.in = null;
+        this.source = source;
+        this.charset = charset;
+        this.buf = new byte[64 * 1024];
+    }
+
+    /**
+     * Advances to the next line. Returns false at the end of the input.
+     * Trailing "\r" of Windows line endings is not part of the last field.
+     */
+    public boolean next() throws IOException {
+        int lineEnd;
+        while ((lineEnd = indexOfNewline(pos)) < 0) {
+            if (eof) {
+                if (pos == limit) {
+                    return false;
+                }
+                lineEnd = limit; // Last line without a line break
+                break;
+            }
+            fill();
+        }
+        int end = lineEnd;
+        if (end > pos && buf[end - 1] == '\r') {
+            end--;
+        }
+        split(pos, end);
+        pos = lineEnd < limit ? lineEnd + 1 : lineEnd;
+        return true;
+    }
+
+    private int indexOfNewline(int from) {
+        for (int i = from; i < limit; i++) {
+            if (buf[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Moves the unread bytes to the front of the buffer (growing it for very long lines) and reads more
+    private void fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            byte[] bigger = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+        }
+        int n = read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            eof = true;
+        }
+        else {
+            limit += n;
+        }
+    }
+
+    // Reads up to len bytes into b at off, returns -1 at the end of the input
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (source == null) {
+            return in.read(b, off, len);
+        }
+        if (!source.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, source.remaining());
+        source.get(b, off, n);
+        return n;
+    }
+
+    private void split(int from, int to) {
+        fieldCount = 0;
+        int start = from;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '\t') {
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+        addField(start, to);
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == starts.length) {
+            int[] s = new int[starts.length * 2];
+            int[] e = new int[ends.length * 2];
+            System.arraycopy(starts, 0, s, 0, fieldCount);
+            System.arraycopy(ends, 0, e, 0, fieldCount);
+            starts = s;
+            ends = e;
+        }
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        fieldCount++;
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public boolean isEmpty(int field) {
+        return field >= fieldCount || starts[field] == ends[field];
+    }
+
+    // True if the field is the "\N" marker
+    public boolean isNull(int field) {
+        if (field >= fieldCount || ends[field] - starts[field] != NULL_MARKER.length) {
+            return false;
+        }
+        return buf[starts[field]] == NULL_MARKER[0] && buf[starts[field] + 1] == NULL_MARKER[1];
+    }
+
+    public String getString(int field) {
+        if (field >= fieldCount) {
+            return "";
+        }
+        return new String(buf, starts[field], ends[field] - starts[field], charset);
+    }
+
+    /**
+     * Like getString, but for fields of few distinct values such as genres or countries: the
+     * value is decoded once per distinct value of the field and the same String returned on
+     * every later line holding it, so the import allocates nothing for these fields.
+     */
+    public String getPooledString(int field) {
+        if (field >= fieldCount) {
+            return "";
+        }
+        if (field >= pools.length) {
+            StringDictionary[] bigger = new StringDictionary[field + 1];
+            System.arraycopy(pools, 0, bigger, 0, pools.length);
+            pools = bigger;
+        }
+        if (pools[field] == null) {
+            pools[field] = new StringDictionary(MAX_POOLED_VALUES);
+        }
+        return pools[field].get(buf, starts[field], ends[field] - starts[field], charset);
+    }
+
+    public int getInt(int field) {
+        long value = getLong(field);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Integer out of range in field " + field + ": " + getString(field));
+        }
+        return (int) value;
+    }
+
+    public long getLong(int field) {
+        if (isEmpty(field)) {
+            throw new NumberFormatException("Empty field " + field);
+        }
+        int i = starts[field];
+        int end = ends[field];
+        boolean negative = buf[i] == '-';
+        if (negative || buf[i] == '+') {
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("Not a number in field " + field + ": " + getString(field));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a number in field " + field + ": " + getString(field));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    public double getDouble(int field) {
+        if (isEmpty(field)) {
+            throw new NumberFormatException("Empty field " + field);
+        }
+        int i = starts[field];
+        int end = ends[field];
+        boolean negative = buf[i] == '-';
+        if (negative || buf[i] == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1; // Digits after the decimal point, -1 until one is seen
+        for (; i < end; i++) {
+            byte b = buf[i];
+            if (b == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9 || digits == 15) {
+                // Exponents, NaN, or more digits than a double holds exactly: leave it to the JDK
+                return Double.parseDouble(getString(field));
+            }
+            mantissa = mantissa * 10 + digit;
+            digits++;
+            if (decimals >= 0) {
+                decimals++;
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Not a number in field " + field + ": " + getString(field));
+        }
+        // Both operands are exact, so the division is correctly rounded like Double.parseDouble
+        double value = decimals > 0 ? mantissa / POW10[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+}
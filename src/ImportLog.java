@@ -0,0 +1,211 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+
+/**
+ * Records, in the import_files table, the size, content hash and row count of every .dat file
+ * Populate imported, so an incremental run can skip files that have not changed and only insert
+ * the new tail of files that have grown (e.g. the append-only user_taggedmovies-timestamps.dat).
+ * Every load updates loaded_at, so readers caching table contents can tell when to drop them.
+ */
+public class ImportLog {
+
+    public static final String TABLE = "import_files";
+
+    private static final String CREATE = "CREATE TABLE " + TABLE + " (\n" +
+            "\tfile_name VARCHAR2(100) PRIMARY KEY,\n" +
+            "\ttable_name VARCHAR2(100),\n" +
+            "\tbyte_length NUMBER(19),\n" +
+            "\tcontent_hash VARCHAR2(64),\n" +
+            "\trow_count NUMBER(19),\n" +
+            "\tloaded_at TIMESTAMP\n)";
+
+    // What was imported from a file
+    public static class Entry {
+        public final long length;
+        public final String hash;
+        public final long rows;
+
+        Entry(long length, String hash, long rows) {
+            this.length = length;
+            this.hash = hash;
+            this.rows = rows;
+        }
+    }
+
+    // Size and hash of a file, plus the hash of its first prefixLength bytes
+    public static class Fingerprint {
+        public final long length;
+        public final String hash;
+        public final long prefixLength;
+        public final String prefixHash;
+        public final boolean prefixEndsLine; // Whether byte prefixLength - 1 is a line break
+
+        Fingerprint(long length, String hash, long prefixLength, String prefixHash, boolean prefixEndsLine) {
+            this.length = length;
+            this.hash = hash;
+            this.prefixLength = prefixLength;
+            this.prefixHash = prefixHash;
+            this.prefixEndsLine = prefixEndsLine;
+        }
+
+        // The file is exactly what was imported
+        public boolean isUnchanged(Entry previous) {
+            return previous != null && previous.length == length && hash.equals(previous.hash);
+        }
+
+        // The file is what was imported followed by new lines
+        public boolean isAppendOf(Entry previous) {
+            return previous != null && length > previous.length && prefixLength == previous.length
+                    && prefixEndsLine && prefixHash.equals(previous.hash);
+        }
+    }
+
+    // Creates the import_files table if it does not exist yet
+    public static void ensureTable(Connection con) throws SQLException {
+        try (ResultSet rs = con.getMetaData().getTables(null, null, TABLE.toUpperCase(), null)) {
+            if (rs.next()) {
+                return;
+            }
+        }
+        try (Statement stmt = con.createStatement()) {
+            stmt.execute(CREATE);
+        }
+    }
+
+    // Returns what was last imported from fileName, or null if it never was
+    public static Entry find(Connection con, String fileName) throws SQLException {
+        String sql = "SELECT byte_length, content_hash, row_count FROM " + TABLE + " WHERE file_name = ?";
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            ps.setString(1, fileName);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return new Entry(rs.getLong(1), rs.getString(2), rs.getLong(3));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the entry of fileName; committed with the caller's transaction.
+     * fingerprint is null when the file was imported without hashing it
+     */
+    public static void record(Connection con, String fileName, String table, Fingerprint fingerprint, long rows)
+            throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("DELETE FROM " + TABLE + " WHERE file_name = ?")) {
+            ps.setString(1, fileName);
+            ps.executeUpdate();
+        }
+        String insert = "INSERT INTO " + TABLE + " VALUES (?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
+        try (PreparedStatement ps = con.prepareStatement(insert)) {
+            ps.setString(1, fileName);
+            ps.setString(2, table);
+            if (fingerprint == null) {
+                ps.setNull(3, Types.NUMERIC);
+                ps.setNull(4, Types.VARCHAR);
+            }
+            else {
+                ps.setLong(3, fingerprint.length);
+                ps.setString(4, fingerprint.hash);
+            }
+            ps.setLong(5, rows);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Removes the entries of the files loaded into table, so the next incremental import reloads
+     * them in full; committed with the caller's transaction
+     */
+    public static void forget(Connection con, String table) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("DELETE FROM " + TABLE + " WHERE table_name = ?")) {
+            ps.setString(1, table);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Returns when a table was last loaded, or null if nothing was recorded yet.
+     * Fails if Populate never created the import_files table
+     */
+    public static Timestamp lastLoaded(Connection con) throws SQLException {
+        try (Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(loaded_at) FROM " + TABLE)) {
+            rs.next();
+            return rs.getTimestamp(1);
+        }
+    }
+
+    // Returns when the table was last loaded, or null if it was not recorded
+    public static Timestamp lastLoaded(Connection con, String table) throws SQLException {
+        String sql = "SELECT MAX(loaded_at) FROM " + TABLE + " WHERE table_name = ?";
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getTimestamp(1);
+            }
+        }
+    }
+
+    /**
+     * Hashes the file in one pass, also keeping the hash of its first prefixLength bytes
+     * (pass -1 if there is no previous import to compare against)
+     */
+    public static Fingerprint fingerprint(String path, long prefixLength) throws IOException {
+        MessageDigest digest = newDigest();
+        String prefixHash = null;
+        boolean prefixEndsLine = false;
+        byte[] buf = new byte[64 * 1024];
+        long position = 0;
+        try (InputStream in = new FileInputStream(path)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                if (prefixHash == null && prefixLength >= position && prefixLength <= position + n) {
+                    // The prefix ends inside this block
+                    int split = (int) (prefixLength - position);
+                    digest.update(buf, 0, split);
+                    prefixHash = toHex(cloneDigest(digest));
+                    prefixEndsLine = split > 0 && buf[split - 1] == '\n';
+                    digest.update(buf, split, n - split);
+                }
+                else {
+                    digest.update(buf, 0, n);
+                }
+                position += n;
+            }
+        }
+        return new Fingerprint(position, toHex(digest.digest()), prefixHash == null ? -1 : prefixLength,
+                prefixHash, prefixEndsLine);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static byte[] cloneDigest(MessageDigest digest) {
+        try {
+            return ((MessageDigest) digest.clone()).digest();
+        }
+        catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Cannot copy the SHA-256 digest", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Overlaps parsing of a .dat file with binding and executing the insert batches.
+ * A reader thread parses rows into reusable row buffers and hands them, a chunk at a time,
+ * through a bounded queue to the writer (the thread calling run), which binds and executes them.
+ * When the queue is full the reader blocks until the writer catches up (backpressure).
+ *
+ * The time each side spends waiting on the other and the queue depth seen by the writer are
+ * kept so report() can tell which stage is the bottleneck.
+ */
+public class ImportPipeline {
+
+    // Parses the next row of a .dat file into row, a buffer that is reused for later rows.
+    // Returns false at the end of the file
+    public interface RowParser {
+        boolean next(ImportRow row) throws IOException;
+    }
+
+    // Binds a parsed row; the row buffer is recycled as soon as write returns
+    public interface RowWriter {
+        void write(ImportRow row) throws SQLException;
+    }
+
+    // Rows handed over per queue operation, so the queue is not touched for every line
+    private static final int CHUNK_ROWS = 256;
+    // Marks the end of the file for the writer
+    private static final Chunk END = new Chunk(0, 0);
+
+    private final int queueDepth;
+    private final BlockingQueue<Chunk> filled;
+    private final BlockingQueue<Chunk> free;
+    // What made the reader stop early: an IOException, or an Error such as OutOfMemoryError
+    private volatile Throwable readError;
+
+    // Metrics
+    private long readerBlockedNanos; // Reader waiting for space in the queue
+    private long readerNanos; // Reader running, blocked or not
+    private long writerIdleNanos; // Writer waiting for parsed rows
+    private long depthSum;
+    private int maxDepth;
+    private int chunks;
+
+    // queueDepth is the number of chunks of parsed rows allowed to wait for the writer
+    public ImportPipeline(int queueDepth) {
+        this.queueDepth = Math.max(1, queueDepth);
+        filled = new ArrayBlockingQueue<>(this.queueDepth);
+        free = new ArrayBlockingQueue<>(this.queueDepth + 2);
+    }
+
+    /**
+     * Reads every remaining row from parser on a separate thread and writes them on this one.
+     * Returns the number of rows written.
+     */
+    public int run(int numColumns, RowParser parser, RowWriter writer)
+            throws IOException, SQLException {
+        // One chunk can be filled by the reader and one drained by the writer while the queue is full
+        free.clear();
+        for (int i = 0; i < queueDepth + 2; i++) {
+            free.add(new Chunk(CHUNK_ROWS, numColumns));
+        }
+        Thread reader = new Thread(() -> read(parser), "pipeline-reader");
+        reader.start();
+        int rows = 0;
+        try {
+            while (true) {
+                long start = System.nanoTime();
+                Chunk chunk = filled.take();
+                writerIdleNanos += System.nanoTime() - start;
+                if (chunk == END) {
+                    break;
+                }
+                int depth = filled.size() + 1;
+                depthSum += depth;
+                maxDepth = Math.max(maxDepth, depth);
+                chunks++;
+                for (int i = 0; i < chunk.size; i++) {
+                    writer.write(chunk.rows[i]);
+                }
+                rows += chunk.size;
+                chunk.size = 0;
+                free.put(chunk);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        }
+        finally {
+            // Stops the reader if the writer failed; a no-op once the reader is done
+            reader.interrupt();
+            try {
+                reader.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Throwable error = readError;
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        if (error != null) {
+            throw (IOException) error;
+        }
+        return rows;
+    }
+
+    // Whatever happens, the writer gets END, after readError if the reader failed: it would
+    // otherwise wait on the queue forever
+    private void read(RowParser parser) {
+        long start = System.nanoTime();
+        boolean writerGone = false;
+        try {
+            Chunk chunk = free.take();
+            while (parser.next(chunk.rows[chunk.size])) {
+                chunk.size++;
+                if (chunk.size == chunk.rows.length) {
+                    hand(chunk);
+                    chunk = free.take();
+                }
+            }
+            if (chunk.size > 0) {
+                hand(chunk);
+            }
+        }
+        catch (InterruptedException e) {
+            // The writer gave up, nobody is waiting for more rows
+            writerGone = true;
+        }
+        catch (IOException | Error e) {
+            readError = e;
+        }
+        catch (RuntimeException e) {
+            readError = new IOException("Cannot parse line: " + e.getMessage(), e);
+        }
+        finally {
+            readerNanos = System.nanoTime() - start;
+            if (!writerGone) {
+                try {
+                    filled.put(END);
+                }
+                catch (InterruptedException e) {
+                    // The writer gave up meanwhile
+                }
+            }
+        }
+    }
+
+    private void hand(Chunk chunk) throws InterruptedException {
+        long start = System.nanoTime();
+        filled.put(chunk);
+        readerBlockedNanos += System.nanoTime() - start;
+    }
+
+    public long getReaderBlockedNanos() {
+        return readerBlockedNanos;
+    }
+
+    // Time the reader spent parsing, without waiting for the writer
+    public long getReaderParseNanos() {
+        return readerNanos - readerBlockedNanos;
+    }
+
+    public long getWriterIdleNanos() {
+        return writerIdleNanos;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public double getAverageDepth() {
+        return chunks == 0 ? 0 : (double) depthSum / chunks;
+    }
+
+    // Summary of the queue metrics; only meaningful once run has returned
+    public String report() {
+        String bottleneck = readerBlockedNanos > writerIdleNanos ? "writer (database)" : "reader (parsing)";
+        return String.format("queue depth avg %.1f, max %d of %d chunks; reader blocked %.2fs, " +
+                        "writer idle %.2fs; bottleneck: %s",
+                getAverageDepth(), maxDepth, queueDepth, readerBlockedNanos / 1e9, writerIdleNanos / 1e9,
+                bottleneck);
+    }
+
+    // A reusable block of row buffers
+    private static class Chunk {
+        private final ImportRow[] rows;
+        private int size;
+
+        Chunk(int numRows, int numColumns) {
+            rows = new ImportRow[numRows];
+            for (int i = 0; i < numRows; i++) {
+                rows[i] = new ImportRow(numColumns);
+            }
+        }
+    }
+}
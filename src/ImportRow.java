@@ -0,0 +1,112 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * A reusable buffer for one row to be inserted. Each column holds either a primitive number,
+ * a String, or NULL, so numeric columns go from the file to the driver without boxing or an
+ * intermediate String.
+ */
+public class ImportRow {
+
+    private static final byte NULL = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte STRING = 3;
+
+    private final byte[] kinds;
+    private final long[] longs;
+    private final double[] doubles;
+    private final String[] strings;
+
+    public ImportRow(int numColumns) {
+        kinds = new byte[numColumns];
+        longs = new long[numColumns];
+        doubles = new double[numColumns];
+        strings = new String[numColumns];
+    }
+
+    public int size() {
+        return kinds.length;
+    }
+
+    public void setNull(int column) {
+        kinds[column] = NULL;
+        strings[column] = null;
+    }
+
+    public void setLong(int column, long value) {
+        kinds[column] = LONG;
+        longs[column] = value;
+        strings[column] = null;
+    }
+
+    public void setDouble(int column, double value) {
+        kinds[column] = DOUBLE;
+        doubles[column] = value;
+        strings[column] = null;
+    }
+
+    public void setString(int column, String value) {
+        kinds[column] = STRING;
+        strings[column] = value;
+    }
+
+    public boolean isNull(int column) {
+        return kinds[column] == NULL;
+    }
+
+    public long getLong(int column) {
+        return kinds[column] == DOUBLE ? (long) doubles[column] : longs[column];
+    }
+
+    public double getDouble(int column) {
+        return kinds[column] == LONG ? longs[column] : doubles[column];
+    }
+
+    // The value as text, as it would appear in the .dat file
+    public String getString(int column) {
+        switch (kinds[column]) {
+            case LONG:
+                return Long.toString(longs[column]);
+            case DOUBLE:
+                return Double.toString(doubles[column]);
+            case STRING:
+                return strings[column];
+            default:
+                return null;
+        }
+    }
+
+    // Binds every column to ps using the matching type-specific setter
+    public void bind(PreparedStatement ps, List<Integer> columnTypes) throws SQLException {
+        for (int i = 0; i < kinds.length; i++) {
+            int type = columnTypes.get(i);
+            switch (kinds[i]) {
+                case LONG:
+                    ps.setLong(i + 1, longs[i]);
+                    break;
+                case DOUBLE:
+                    ps.setDouble(i + 1, doubles[i]);
+                    break;
+                case STRING:
+                    if (type == Types.TIMESTAMP || type == Types.DATE || isText(type)) {
+                        // Dates are converted by TO_DATE in the insert statement
+                        ps.setString(i + 1, strings[i]);
+                    }
+                    else {
+                        ps.setObject(i + 1, strings[i], type);
+                    }
+                    break;
+                default:
+                    ps.setNull(i + 1, type);
+            }
+        }
+    }
+
+    private static boolean isText(int type) {
+        return type == Types.VARCHAR || type == Types.CHAR || type == Types.NVARCHAR
+                || type == Types.NCHAR || type == Types.LONGVARCHAR || type == Types.CLOB;
+    }
+}
@@ -0,0 +1,243 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * The indexes behind the search predicates of QueryBuilder (one per processXxx section), and a
+ * check of whether the database uses them.
+ * ensureIndexes creates the missing ones and rebuilds those left unusable; Populate calls it
+ * after each load, then prints report: the plan of each predicate alone, as captured by the
+ * database (EXPLAIN), and the tables it still reads in full.
+ * Run on its own it generates the DDL instead of executing it:
+ * "java -cp .:ojdbc6.jar IndexAdvisor" prints the CREATE INDEX statements of the missing
+ * indexes and the report; "java -cp .:ojdbc6.jar IndexAdvisor create" also creates them.
+ */
+public class IndexAdvisor {
+
+    // An index on columns of a table (in order), or on an expression over them
+    private static class Index {
+        final String name;
+        final String table;
+        final String[] columns;
+        final String expression;
+        final String predicate; // The QueryBuilder section it serves
+
+        // columns: ", " separated, e.g. "user_id, ts, rating"
+        Index(String name, String table, String predicate, String columns) {
+            this(name, table, predicate, columns.split(", "), null);
+        }
+
+        private Index(String name, String table, String predicate, String[] columns, String expression) {
+            this.name = name;
+            this.table = table;
+            this.columns = columns;
+            this.expression = expression;
+            this.predicate = predicate;
+        }
+
+        static Index onExpression(String name, String table, String predicate, String expression) {
+            return new Index(name, table, predicate, null, expression);
+        }
+
+        String ddl() {
+            return "CREATE INDEX " + name + " ON " + table + " ("
+                    + (expression != null ? expression : String.join(", ", columns)) + ")";
+        }
+    }
+
+    private static final Index[] INDEXES = {
+            new Index("movie_genres_genre", "movie_genres", "processGenres", "genre"),
+            new Index("movie_countries_country", "movie_countries", "processCountries", "country"),
+            new Index("movie_directors_name", "movie_directors", "processDirector", "director_name"),
+            new Index("movie_actors_name", "movie_actors", "processActors", "actor_name"),
+            new Index("tags_value", "tags", "processTags", "value"),
+            // The user's ratings, by date, with their value: the section is answered from the index
+            new Index("user_ratedmovies_search", "user_ratedmovies", "processUserRatings", "user_id, ts, rating"),
+            new Index("movies_year", "movies", "processMovieYear", "year"),
+            // Function-based, matching the text of the averages QueryBuilder compares
+            Index.onExpression("movies_avg_rating", "movies", "processMovieRatings", QueryBuilder.AVERAGE_RATING),
+            Index.onExpression("movies_avg_reviews", "movies", "processMovieCounts", QueryBuilder.AVERAGE_REVIEWS),
+    };
+
+    private IndexAdvisor() {
+    }
+
+    /**
+     * The CREATE INDEX statements of the indexes the database does not have. Expression indexes
+     * are left out where the database has none (H2; movie_summary covers those searches)
+     */
+    public static List<String> missing(Connection con, SqlDialect dialect) throws SQLException {
+        ArrayList<String> ddl = new ArrayList<>();
+        DatabaseMetaData dbmd = con.getMetaData();
+        for (Index index : INDEXES) {
+            if (index.expression != null && !dialect.supportsExpressionIndexes()) {
+                continue;
+            }
+            if (tableExists(dbmd, index.table) && !exists(dbmd, index)) {
+                ddl.add(index.ddl());
+            }
+        }
+        return ddl;
+    }
+
+    /**
+     * Creates the missing indexes and rebuilds the unusable ones (e.g. after a reload that could
+     * not finish). Returns the statements executed
+     */
+    public static List<String> ensureIndexes(Connection con, SqlDialect dialect) throws SQLException {
+        ArrayList<String> executed = new ArrayList<>(missing(con, dialect));
+        if (dialect.unusableIndexes() != null) {
+            try (Statement stmt = con.createStatement();
+                 ResultSet rs = stmt.executeQuery(dialect.unusableIndexes())) {
+                while (rs.next()) {
+                    executed.add("ALTER INDEX " + rs.getString(1) + " REBUILD");
+                }
+            }
+        }
+        try (Statement stmt = con.createStatement()) {
+            for (String sql : executed) {
+                stmt.execute(sql);
+            }
+        }
+        return executed;
+    }
+
+    private static boolean tableExists(DatabaseMetaData dbmd, String table) throws SQLException {
+        try (ResultSet rs = dbmd.getTables(null, null, table.toUpperCase(), null)) {
+            return rs.next();
+        }
+    }
+
+    // An index of that name, or for column indexes any index whose leading columns are the same
+    private static boolean exists(DatabaseMetaData dbmd, Index index) throws SQLException {
+        // Columns of each index of the table, in order
+        Map<String, List<String>> indexes = new LinkedHashMap<>();
+        try (ResultSet rs = dbmd.getIndexInfo(null, null, index.table.toUpperCase(), false, true)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                if (name == null) {
+                    continue; // Table statistics, not an index
+                }
+                List<String> columns = indexes.computeIfAbsent(name.toLowerCase(), k -> new ArrayList<>());
+                int position = rs.getInt("ORDINAL_POSITION");
+                String column = rs.getString("COLUMN_NAME");
+                while (columns.size() < position) {
+                    columns.add(null);
+                }
+                columns.set(position - 1, column == null ? null : column.toLowerCase());
+            }
+        }
+        if (indexes.containsKey(index.name)) {
+            return true;
+        }
+        if (index.expression != null) {
+            return false;
+        }
+        for (List<String> columns : indexes.values()) {
+            if (columns.size() >= index.columns.length
+                    && columns.subList(0, index.columns.length).equals(Arrays.asList(index.columns))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A search using only the given section, with typical values
+    private static SearchCriteria sample(String predicate) {
+        SearchCriteria criteria = new SearchCriteria();
+        switch (predicate) {
+            case "processGenres":
+                criteria.genres.add("Drama");
+                break;
+            case "processCountries":
+                criteria.countries.add("USA");
+                break;
+            case "processDirector":
+                criteria.director = "Steven Spielberg";
+                break;
+            case "processActors":
+                criteria.actors.add("Tom Hanks");
+                break;
+            case "processTags":
+                criteria.tags = "classic";
+                break;
+            case "processUserRatings":
+                criteria.userId = "75";
+                criteria.fromDate = "01/01/2005";
+                criteria.toDate = "12/31/2008";
+                criteria.userRatingOp = ">";
+                criteria.userRatingValue = "3";
+                break;
+            case "processMovieYear":
+                criteria.fromYear = "1990";
+                criteria.toYear = "1999";
+                break;
+            case "processMovieRatings":
+                criteria.ratingOp = ">=";
+                criteria.ratingValue = "7.5";
+                break;
+            case "processMovieCounts":
+                criteria.countOp = ">";
+                criteria.countValue = "100";
+                break;
+        }
+        return criteria.normalized();
+    }
+
+    /**
+     * One line per search section: the tables the plan of its matching movie ids reads in full,
+     * the filtered table marked with "*" (its index is missing or not used)
+     */
+    public static String report(Connection con, SqlDialect dialect) throws SQLException {
+        StringBuilder sb = new StringBuilder("Full scans of the search predicates (" + dialect + " plans):");
+        for (Index index : INDEXES) {
+            // The section alone, as in the join-free query: only the joins it needs
+            SqlQuery query = new QueryBuilder(sample(index.predicate), true, dialect).buildJoinedRowCount();
+            Set<String> scans = dialect.fullScans(con, query);
+            StringJoiner tables = new StringJoiner(", ");
+            for (String table : scans) {
+                tables.add(table.equals(index.table) ? table + "*" : table);
+            }
+            sb.append(String.format("%n   %-20s %s", index.predicate, scans.isEmpty() ? "none" : tables));
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        ConnectionPool pool;
+        try {
+            pool = ConnectionPool.fromConnectionFile("IndexAdvisor", 1);
+        }
+        catch (ClassNotFoundException e) {
+            System.err.println("Cannot find the database driver");
+            return;
+        }
+        boolean create = args.length > 0 && args[0].equals("create");
+        try (Connection con = pool.getConnection()) {
+            List<String> ddl = create ? ensureIndexes(con, pool.getDialect()) : missing(con, pool.getDialect());
+            if (ddl.isEmpty()) {
+                System.out.println("-- No index missing");
+            }
+            for (String sql : ddl) {
+                System.out.println(sql + ";");
+            }
+            System.out.println(report(con, pool.getDialect()));
+        }
+        catch (SQLException e) {
+            while (e != null) {
+                System.out.println("Message: " + e.getMessage());
+                System.out.println("SQLState: " + e.getSQLState());
+                System.out.println("Vendor Error: " + e.getErrorCode());
+                e = e.getNextException();
+            }
+        }
+        finally {
+            pool.close();
+        }
+    }
+}
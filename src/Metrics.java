@@ -0,0 +1,348 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograms and meters of one program (hw3, Populate), published as JMX MXBeans under
+ * moviedb:type=<program>,name=<metric> (see them with jconsole or VisualVM) and printed as one
+ * line every metrics.logInterval seconds (default 30, 0 disables it) when they changed.
+ * Recording is a few atomic adds, so it can sit on the hot paths: once per search step or per
+ * batch, never per row.
+ */
+public class Metrics {
+
+    private static final Map<String, Metrics> PROGRAMS = new LinkedHashMap<>();
+
+    private final String program;
+    // By name, in creation order
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+    private ScheduledExecutorService logger;
+    private String lastLine;
+
+    private Metrics(String program) {
+        this.program = program;
+    }
+
+    /**
+     * The metrics of the program, shared by every instance of it in the JVM (the benchmarks run
+     * Populate many times; the MBean names must stay unique)
+     */
+    public static synchronized Metrics of(String program) {
+        Metrics metrics = PROGRAMS.get(program);
+        if (metrics == null) {
+            metrics = new Metrics(program);
+            metrics.startLogging(Long.getLong("metrics.logInterval", 30));
+            PROGRAMS.put(program, metrics);
+        }
+        return metrics;
+    }
+
+    // Histogram of durations, recorded in nanoseconds and shown in milliseconds
+    public Histogram latency(String name) {
+        return (Histogram) register(name, new Histogram(name, "ms", 1e6));
+    }
+
+    // Histogram of plain values such as row counts
+    public Histogram values(String name, String unit) {
+        return (Histogram) register(name, new Histogram(name, unit, 1));
+    }
+
+    public Meter meter(String name, String unit) {
+        return (Meter) register(name, new Meter(name, unit));
+    }
+
+    // Number of times something happened, such as cache hits
+    public Counter counter(String name) {
+        return (Counter) register(name, new Counter(name));
+    }
+
+    private synchronized Metric register(String name, Metric created) {
+        Metric metric = metrics.get(name);
+        if (metric != null) {
+            return metric;
+        }
+        metrics.put(name, created);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(created, new ObjectName("moviedb:type=" + program + ",name=" + name));
+        }
+        catch (JMException | IllegalArgumentException e) {
+            System.err.println("Cannot publish metric " + name + " over JMX: " + e.getMessage());
+        }
+        return created;
+    }
+
+    private void startLogging(long seconds) {
+        if (seconds <= 0) {
+            return;
+        }
+        logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, program + "-metrics");
+            thread.setDaemon(true); // Never keeps the program alive
+            return thread;
+        });
+        logger.scheduleAtFixedRate(this::logIfChanged, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private void logIfChanged() {
+        String line = toString();
+        synchronized (this) {
+            if (line.equals(lastLine)) {
+                return;
+            }
+            lastLine = line;
+        }
+        System.out.println(line);
+    }
+
+    // One line with every metric that recorded something
+    @Override
+    public String toString() {
+        ArrayList<Metric> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(metrics.values());
+        }
+        StringBuilder sb = new StringBuilder(program).append(" metrics:");
+        String separator = " ";
+        for (Metric metric : snapshot) {
+            if (metric.getCount() > 0) {
+                sb.append(separator).append(metric);
+                separator = "; ";
+            }
+        }
+        return sb.toString();
+    }
+
+    private interface Metric {
+        long getCount();
+    }
+
+    public interface CounterMXBean {
+        long getCount();
+    }
+
+    public static class Counter implements CounterMXBean, Metric {
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + getCount();
+        }
+    }
+
+    public interface HistogramMXBean {
+        String getUnit();
+
+        long getCount();
+
+        double getMean();
+
+        double getP50();
+
+        double getP95();
+
+        double getP99();
+
+        double getMax();
+    }
+
+    /**
+     * Counts of values in buckets of exponentially growing width: 8 per power of two, so a
+     * percentile is off by at most 1/8 of its value, in 4KB whatever the range recorded
+     */
+    public static class Histogram implements HistogramMXBean, Metric {
+        private static final int SUB_BUCKETS = 8;
+        private static final int SUB_BITS = 3;
+
+        private final String name;
+        private final String unit;
+        private final double scale; // Recorded units per shown unit
+        private final AtomicLongArray buckets = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name, String unit, double scale) {
+            this.name = name;
+            this.unit = unit;
+            this.scale = scale;
+        }
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(bucket(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long previous;
+            while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+                // Another thread raised the max meanwhile; compare again
+            }
+        }
+
+        // Records the time since start, a System.nanoTime(); for latency histograms
+        public void recordSince(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        // Values below SUB_BUCKETS have a bucket each; above, the top SUB_BITS bits after the
+        // highest one pick one of the SUB_BUCKETS buckets of its power of two
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return ((exponent - SUB_BITS + 1) << SUB_BITS) | sub;
+        }
+
+        // Largest value of the bucket
+        private static long highest(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+            long lowest = (long) (SUB_BUCKETS | (bucket & (SUB_BUCKETS - 1))) << (exponent - SUB_BITS);
+            return lowest + (1L << (exponent - SUB_BITS)) - 1;
+        }
+
+        // The value under which the given fraction of the recorded values are, capped by the max
+        private double percentile(double fraction) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int b = 0; b < buckets.length(); b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) {
+                    return Math.min(highest(b), max.get()) / scale;
+                }
+            }
+            return max.get() / scale;
+        }
+
+        @Override
+        public String getUnit() {
+            return unit;
+        }
+
+        @Override
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        public double getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : sum.get() / scale / n;
+        }
+
+        @Override
+        public double getP50() {
+            return percentile(0.50);
+        }
+
+        @Override
+        public double getP95() {
+            return percentile(0.95);
+        }
+
+        @Override
+        public double getP99() {
+            return percentile(0.99);
+        }
+
+        @Override
+        public double getMax() {
+            return max.get() / scale;
+        }
+
+        @Override
+        public String toString() {
+            String format = scale == 1 ? "%.0f" : "%.2f";
+            return String.format("%s n=%d p50=" + format + " p95=" + format + " p99=" + format + " max="
+                    + format + "%s", name, getCount(), getP50(), getP95(), getP99(), getMax(), unit);
+        }
+    }
+
+    public interface MeterMXBean {
+        String getUnit();
+
+        long getCount();
+
+        double getSeconds();
+
+        double getRatePerSecond();
+    }
+
+    /**
+     * A count of units (rows) and the time spent on them, giving their rate
+     */
+    public static class Meter implements MeterMXBean, Metric {
+        private final String name;
+        private final String unit;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        Meter(String name, String unit) {
+            this.name = name;
+            this.unit = unit;
+        }
+
+        public void record(long units, long elapsedNanos) {
+            count.addAndGet(units);
+            nanos.addAndGet(elapsedNanos);
+        }
+
+        @Override
+        public String getUnit() {
+            return unit;
+        }
+
+        @Override
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        public double getSeconds() {
+            return nanos.get() / 1e9;
+        }
+
+        @Override
+        public double getRatePerSecond() {
+            long elapsed = nanos.get();
+            return elapsed == 0 ? 0 : count.get() / (elapsed / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %d %s in %.2fs (%.0f %s/s)", name, getCount(), unit, getSeconds(),
+                    getRatePerSecond(), unit);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative ints (movie rows), organised like a Roaring bitmap.
+ * Values are grouped by their high 16 bits; each group of up to 65536 values is stored as a
+ * sorted array of its low 16 bits while it has at most 4096 of them, and as a 65536 bit
+ * bitmap (8 KB) once it has more. Sparse sets (an actor's movies) stay a few bytes per value,
+ * dense ones (a popular genre) one bit per possible value, and AND/OR work container by
+ * container: array merges, bitmap word operations, or array lookups in a bitmap.
+ * Immutable; and/or return new bitmaps.
+ */
+public final class MovieBitmap {
+
+    // Most values an array container holds; past this a bitmap container is smaller
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    public static final MovieBitmap EMPTY = new MovieBitmap(new char[0], new Container[0], 0);
+
+    // High 16 bits of the values of each container, ascending
+    private final char[] keys;
+    private final Container[] containers;
+    private final int size;
+
+    private MovieBitmap(char[] keys, Container[] containers, int count) {
+        this.keys = keys;
+        this.containers = containers;
+        int cardinality = 0;
+        for (int i = 0; i < count; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        this.size = cardinality;
+    }
+
+    /**
+     * Builds a bitmap from values sorted in ascending order, without duplicates
+     */
+    public static MovieBitmap of(int[] sorted) {
+        return of(sorted, sorted.length);
+    }
+
+    /**
+     * Builds a bitmap from the first count values, sorted in ascending order, without duplicates
+     */
+    public static MovieBitmap of(int[] sorted, int count) {
+        char[] keys = new char[4];
+        Container[] containers = new Container[4];
+        int n = 0;
+        int i = 0;
+        while (i < count) {
+            char key = (char) (sorted[i] >>> 16);
+            int end = i;
+            while (end < count && (sorted[end] >>> 16) == key) {
+                end++;
+            }
+            char[] low = new char[end - i];
+            for (int j = i; j < end; j++) {
+                low[j - i] = (char) sorted[j];
+            }
+            if (n == keys.length) {
+                keys = Arrays.copyOf(keys, n * 2);
+                containers = Arrays.copyOf(containers, n * 2);
+            }
+            keys[n] = key;
+            containers[n] = ArrayContainer.create(low, low.length);
+            n++;
+            i = end;
+        }
+        return new MovieBitmap(Arrays.copyOf(keys, n), Arrays.copyOf(containers, n), n);
+    }
+
+    /**
+     * The values 0 (inclusive) to end (exclusive)
+     */
+    public static MovieBitmap range(int end) {
+        int n = (end + 0xFFFF) >>> 16;
+        char[] keys = new char[n];
+        Container[] containers = new Container[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (char) i;
+            int count = Math.min(end - (i << 16), 1 << 16);
+            long[] words = new long[WORDS];
+            for (int bit = 0; bit < count; bit++) {
+                words[bit >>> 6] |= 1L << bit;
+            }
+            containers[i] = BitmapContainer.create(words, count);
+        }
+        return new MovieBitmap(keys, containers, n);
+    }
+
+    public int cardinality() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int value) {
+        int i = Arrays.binarySearch(keys, (char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    // Values in both bitmaps
+    public MovieBitmap and(MovieBitmap other) {
+        char[] keys = new char[Math.min(this.keys.length, other.keys.length)];
+        Container[] containers = new Container[keys.length];
+        int n = 0;
+        int i = 0, j = 0;
+        while (i < this.keys.length && j < other.keys.length) {
+            if (this.keys[i] < other.keys[j]) {
+                i++;
+            }
+            else if (this.keys[i] > other.keys[j]) {
+                j++;
+            }
+            else {
+                Container c = this.containers[i].and(other.containers[j]);
+                if (c.cardinality() > 0) {
+                    keys[n] = this.keys[i];
+                    containers[n] = c;
+                    n++;
+                }
+                i++;
+                j++;
+            }
+        }
+        return new MovieBitmap(Arrays.copyOf(keys, n), Arrays.copyOf(containers, n), n);
+    }
+
+    // Values in either bitmap
+    public MovieBitmap or(MovieBitmap other) {
+        char[] keys = new char[this.keys.length + other.keys.length];
+        Container[] containers = new Container[keys.length];
+        int n = 0;
+        int i = 0, j = 0;
+        while (i < this.keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < this.keys.length && this.keys[i] < other.keys[j])) {
+                keys[n] = this.keys[i];
+                containers[n++] = this.containers[i++];
+            }
+            else if (i == this.keys.length || other.keys[j] < this.keys[i]) {
+                keys[n] = other.keys[j];
+                containers[n++] = other.containers[j++];
+            }
+            else {
+                keys[n] = this.keys[i];
+                containers[n++] = this.containers[i++].or(other.containers[j++]);
+            }
+        }
+        return new MovieBitmap(Arrays.copyOf(keys, n), Arrays.copyOf(containers, n), n);
+    }
+
+    // The values in ascending order
+    public int[] toArray() {
+        int[] values = new int[size];
+        int pos = 0;
+        for (int i = 0; i < keys.length; i++) {
+            pos = containers[i].fill(values, pos, keys[i] << 16);
+        }
+        return values;
+    }
+
+    // Bytes used by the containers, to compare with a plain int array (4 bytes per value)
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (Container c : containers) {
+            bytes += c.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private interface Container {
+        int cardinality();
+
+        boolean contains(char low);
+
+        Container and(Container other);
+
+        Container or(Container other);
+
+        // Writes the values (high | low) to out starting at pos, returns the next position
+        int fill(int[] out, int pos, int high);
+
+        long sizeInBytes();
+    }
+
+    // Up to ARRAY_MAX sorted low 16 bit values
+    private static final class ArrayContainer implements Container {
+        private final char[] values;
+
+        private ArrayContainer(char[] values) {
+            this.values = values;
+        }
+
+        // An array container for the first count values, or a bitmap one if there are too many
+        static Container create(char[] values, int count) {
+            if (count > ARRAY_MAX) {
+                long[] words = new long[WORDS];
+                for (int i = 0; i < count; i++) {
+                    words[values[i] >>> 6] |= 1L << values[i];
+                }
+                return BitmapContainer.create(words, count);
+            }
+            return new ArrayContainer(count == values.length ? values : Arrays.copyOf(values, count));
+        }
+
+        @Override
+        public int cardinality() {
+            return values.length;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return Arrays.binarySearch(values, low) >= 0;
+        }
+
+        @Override
+        public Container and(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.and(this);
+            }
+            char[] a = values;
+            char[] b = ((ArrayContainer) other).values;
+            char[] result = new char[Math.min(a.length, b.length)];
+            int i = 0, j = 0, n = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    i++;
+                }
+                else if (a[i] > b[j]) {
+                    j++;
+                }
+                else {
+                    result[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(Arrays.copyOf(result, n));
+        }
+
+        @Override
+        public Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            char[] a = values;
+            char[] b = ((ArrayContainer) other).values;
+            char[] result = new char[a.length + b.length];
+            int i = 0, j = 0, n = 0;
+            while (i < a.length || j < b.length) {
+                if (j == b.length || (i < a.length && a[i] < b[j])) {
+                    result[n++] = a[i++];
+                }
+                else if (i == a.length || b[j] < a[i]) {
+                    result[n++] = b[j++];
+                }
+                else {
+                    result[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return create(result, n);
+        }
+
+        @Override
+        public int fill(int[] out, int pos, int high) {
+            for (char value : values) {
+                out[pos++] = high | value;
+            }
+            return pos;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 2L * values.length;
+        }
+    }
+
+    // More than ARRAY_MAX values, one bit each
+    private static final class BitmapContainer implements Container {
+        private final long[] words;
+        private final int cardinality;
+
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        // A bitmap container, or an array one if there are few enough values
+        static Container create(long[] words, int cardinality) {
+            if (cardinality <= ARRAY_MAX) {
+                char[] values = new char[cardinality];
+                int n = 0;
+                for (int w = 0; w < WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+                return new ArrayContainer(values);
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        public Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                // Keep the array values whose bit is set
+                char[] values = ((ArrayContainer) other).values;
+                char[] result = new char[values.length];
+                int n = 0;
+                for (char value : values) {
+                    if (contains(value)) {
+                        result[n++] = value;
+                    }
+                }
+                return new ArrayContainer(Arrays.copyOf(result, n));
+            }
+            long[] b = ((BitmapContainer) other).words;
+            long[] result = new long[WORDS];
+            int count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                result[w] = words[w] & b[w];
+                count += Long.bitCount(result[w]);
+            }
+            return create(result, count);
+        }
+
+        @Override
+        public Container or(Container other) {
+            long[] result = words.clone();
+            int count = cardinality;
+            if (other instanceof ArrayContainer) {
+                for (char value : ((ArrayContainer) other).values) {
+                    long bit = 1L << value;
+                    if ((result[value >>> 6] & bit) == 0) {
+                        result[value >>> 6] |= bit;
+                        count++;
+                    }
+                }
+                return new BitmapContainer(result, count);
+            }
+            long[] b = ((BitmapContainer) other).words;
+            count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                result[w] |= b[w];
+                count += Long.bitCount(result[w]);
+            }
+            return new BitmapContainer(result, count);
+        }
+
+        @Override
+        public int fill(int[] out, int pos, int high) {
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    out[pos++] = high | ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return pos;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return 8L * WORDS;
+        }
+    }
+}
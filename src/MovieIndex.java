@@ -0,0 +1,602 @@
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory copy of the movie catalogue that answers hw3 searches without the database.
+ * Movie attributes are kept in primitive arrays indexed by row (movies in movie_id order) and
+ * genres, countries, directors, actors and tags in posting lists: a MovieBitmap of the rows of
+ * the movies having each value. Sections are evaluated like the QueryBuilder ones, ANY/ALL
+ * as bitmap OR/AND, and combined with the run option the same way, so a search costs a few
+ * bitmap operations and array scans.
+ * The database stays the source of truth: the user ratings section is not indexed and
+ * searches using it, and tag searches of the base query, must go to the database (see canServe).
+ */
+public class MovieIndex {
+
+    // Result columns, in the order the search query returns them
+    public static final String[] COLUMNS = {"TITLE", "YEAR", "COUNTRY", "CRITICS_RATING", "CRITICS_NUMREVIEWS",
+            "AUDIENCE_RATING", "AUDIENCE_NUMREVIEWS", "GENRES", "TAGS"};
+
+    private static final int FETCH_SIZE = 1000;
+    // Marks a NULL year
+    private static final int NO_YEAR = Integer.MIN_VALUE;
+
+    // Movie attributes by row; NaN marks a NULL number
+    private final int[] movieIds;
+    private final String[] titles;
+    private final int[] years;
+    private final double[] allCriticsRatings;
+    private final double[] topCriticsRatings;
+    private final double[] audienceRatings;
+    private final double[] allCriticsNumReviews;
+    private final double[] topCriticsNumReviews;
+    private final double[] audienceNumReviews;
+    // Comma separated genres and tags of each movie, as the query lists them
+    private final String[] genreLists;
+    private final String[] tagLists;
+    private final String[][] countryLists;
+
+    // Posting lists: value -> rows of the movies having it
+    private final Map<String, MovieBitmap> genres;
+    private final Map<String, MovieBitmap> countries;
+    private final Map<String, MovieBitmap> directors;
+    private final Map<String, MovieBitmap> actors;
+    private final Map<String, MovieBitmap> tags;
+
+    private MovieIndex(int size) {
+        movieIds = new int[size];
+        titles = new String[size];
+        years = new int[size];
+        allCriticsRatings = new double[size];
+        topCriticsRatings = new double[size];
+        audienceRatings = new double[size];
+        allCriticsNumReviews = new double[size];
+        topCriticsNumReviews = new double[size];
+        audienceNumReviews = new double[size];
+        genreLists = new String[size];
+        tagLists = new String[size];
+        countryLists = new String[size][];
+        genres = new HashMap<>();
+        countries = new HashMap<>();
+        directors = new HashMap<>();
+        actors = new HashMap<>();
+        tags = new HashMap<>();
+    }
+
+    /**
+     * Reads the catalogue from the database
+     */
+    public static MovieIndex load(Connection con) throws SQLException {
+        long start = System.nanoTime();
+        MovieIndex index;
+        try (Statement s = con.createStatement()) {
+            s.setFetchSize(FETCH_SIZE);
+            ArrayList<Object[]> movies = new ArrayList<>();
+            try (ResultSet rs = s.executeQuery("SELECT movie_id, title, year, rtAllCriticsRating, " +
+                    "rtTopCriticsRating, rtAllCriticsNumReviews, rtTopCriticsNumReviews, rtAudienceRating, " +
+                    "rtAudienceNumReviews FROM movies ORDER BY movie_id")) {
+                while (rs.next()) {
+                    Object[] movie = new Object[9];
+                    movie[0] = rs.getInt(1);
+                    movie[1] = rs.getString(2);
+                    movie[2] = getInt(rs, 3);
+                    for (int i = 4; i <= 9; i++) {
+                        movie[i - 1] = getDouble(rs, i);
+                    }
+                    movies.add(movie);
+                }
+            }
+            index = new MovieIndex(movies.size());
+            for (int row = 0; row < movies.size(); row++) {
+                Object[] movie = movies.get(row);
+                index.movieIds[row] = (Integer) movie[0];
+                index.titles[row] = (String) movie[1];
+                index.years[row] = (Integer) movie[2];
+                index.allCriticsRatings[row] = (Double) movie[3];
+                index.topCriticsRatings[row] = (Double) movie[4];
+                index.allCriticsNumReviews[row] = (Double) movie[5];
+                index.topCriticsNumReviews[row] = (Double) movie[6];
+                index.audienceRatings[row] = (Double) movie[7];
+                index.audienceNumReviews[row] = (Double) movie[8];
+            }
+
+            TreeMap<String, Postings> values = index.readPostings(s, "SELECT movie_id, genre FROM movie_genres");
+            index.toLists(values, index.genreLists);
+            index.genres.putAll(toBitmaps(values));
+
+            values = index.readPostings(s, "SELECT movie_id, country FROM movie_countries");
+            index.toCountryLists(values);
+            index.countries.putAll(toBitmaps(values));
+
+            values = index.readPostings(s, "SELECT movie_id, director_name FROM movie_directors");
+            index.directors.putAll(toBitmaps(values));
+
+            values = index.readPostings(s, "SELECT movie_id, actor_name FROM movie_actors");
+            index.actors.putAll(toBitmaps(values));
+
+            values = index.readPostings(s, "SELECT UTM.movie_id, T.value FROM user_taggedmovies UTM, tags T " +
+                    "WHERE UTM.tag_id = T.tag_id");
+            index.toLists(values, index.tagLists);
+            index.tags.putAll(toBitmaps(values));
+        }
+        System.out.printf("Loaded %d movies into the in-memory index in %.1f s%n", index.size(),
+                (System.nanoTime() - start) / 1e9);
+        return index;
+    }
+
+    /**
+     * Reads the catalogue from a snapshot of the data files (see DatasetSnapshot) rather than the
+     * database: no query and no parsing, the columns are read from the mapped file. The snapshot
+     * must be of the files the database was loaded from
+     */
+    public static MovieIndex load(DatasetSnapshot snapshot) throws IOException {
+        long start = System.nanoTime();
+        DatasetSnapshot.Table movies = snapshot.table("movies.dat");
+        if (movies == null) {
+            throw new IOException(snapshot.getFile() + " has no movies");
+        }
+        // Rows in movie_id order, as the query returns them: sort (id, position) pairs
+        long[] order = new long[movies.size()];
+        int idColumn = movies.column("movie_id");
+        for (int i = 0; i < order.length; i++) {
+            order[i] = ((long) movies.getInt(i, idColumn) << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] columns = {movies.column("title"), movies.column("year"), movies.column("rtAllCriticsRating"),
+                movies.column("rtTopCriticsRating"), movies.column("rtAllCriticsNumReviews"),
+                movies.column("rtTopCriticsNumReviews"), movies.column("rtAudienceRating"),
+                movies.column("rtAudienceNumReviews")};
+        MovieIndex index = new MovieIndex(order.length);
+        for (int row = 0; row < order.length; row++) {
+            int i = (int) order[row];
+            index.movieIds[row] = (int) (order[row] >> 32);
+            index.titles[row] = movies.getString(i, columns[0]);
+            index.years[row] = movies.isNull(i, columns[1]) ? NO_YEAR : movies.getInt(i, columns[1]);
+            index.allCriticsRatings[row] = movies.getDouble(i, columns[2]);
+            index.topCriticsRatings[row] = movies.getDouble(i, columns[3]);
+            index.allCriticsNumReviews[row] = getCount(movies, i, columns[4]);
+            index.topCriticsNumReviews[row] = getCount(movies, i, columns[5]);
+            index.audienceRatings[row] = movies.getDouble(i, columns[6]);
+            index.audienceNumReviews[row] = getCount(movies, i, columns[7]);
+        }
+
+        TreeMap<String, Postings> values = index.readPostings(snapshot.table("movie_genres.dat"), "genre");
+        index.toLists(values, index.genreLists);
+        index.genres.putAll(toBitmaps(values));
+
+        values = index.readPostings(snapshot.table("movie_countries.dat"), "country");
+        index.toCountryLists(values);
+        index.countries.putAll(toBitmaps(values));
+
+        values = index.readPostings(snapshot.table("movie_directors.dat"), "director_name");
+        index.directors.putAll(toBitmaps(values));
+
+        values = index.readPostings(snapshot.table("movie_actors.dat"), "actor_name");
+        index.actors.putAll(toBitmaps(values));
+
+        values = index.readTagPostings(snapshot);
+        index.toLists(values, index.tagLists);
+        index.tags.putAll(toBitmaps(values));
+        System.out.printf("Loaded %d movies into the in-memory index from %s in %.1f ms%n", index.size(),
+                snapshot.getFile(), (System.nanoTime() - start) / 1e6);
+        return index;
+    }
+
+    public int size() {
+        return movieIds.length;
+    }
+
+    /**
+     * True if every section of the criteria can be answered from the index, with the rows the
+     * query of that shape returns: the index lists all tags of each movie, as the join-free (and
+     * movie_summary) query does, while the base query only lists the tags a tag search matched
+     */
+    public boolean canServe(SearchCriteria criteria, boolean joinFree) {
+        if (!joinFree && !SearchCriteria.isEmpty(criteria.tags)) {
+            return false;
+        }
+        // User ratings (user_ratedmovies) are not indexed
+        return SearchCriteria.isEmpty(criteria.userId)
+                && SearchCriteria.isEmpty(criteria.fromDate)
+                && SearchCriteria.isEmpty(criteria.toDate)
+                && SearchCriteria.isEmpty(criteria.userRatingValue);
+    }
+
+    /**
+     * Returns the rows of the movies matching the criteria, in movie_id order.
+     * Throws IllegalArgumentException if a numeric field does not hold a number
+     */
+    public MovieBitmap search(SearchCriteria criteria) {
+        MovieBitmap[] sections = {
+                anyOrAll(genres, criteria.genres, criteria.allGenres),
+                anyOrAll(countries, criteria.countries, false),
+                SearchCriteria.isEmpty(criteria.director) ? null : posting(directors, criteria.director),
+                anyOrAll(actors, criteria.actors, criteria.allActors),
+                movieRatings(criteria),
+                movieCounts(criteria),
+                movieYears(criteria),
+                SearchCriteria.isEmpty(criteria.tags) ? null
+                        : anyOrAll(tags, Arrays.asList(criteria.tags.split(",")), criteria.allTags)
+        };
+        MovieBitmap result = null;
+        for (MovieBitmap section : sections) {
+            // A null section was not specified
+            if (section == null) {
+                continue;
+            }
+            if (result == null) {
+                result = section;
+            }
+            else if (criteria.and) {
+                result = result.and(section);
+            }
+            else {
+                result = result.or(section);
+            }
+        }
+        if (result == null) {
+            return MovieBitmap.range(size());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the result rows of the matching movies, with the columns of the search query.
+     * Like the query, a movie produced in several countries has one row per country
+     */
+    public List<Object[]> results(MovieBitmap rows) {
+        ArrayList<Object[]> results = new ArrayList<>(rows.cardinality());
+        for (int row : rows.toArray()) {
+            String[] movieCountries = countryLists[row];
+            if (movieCountries == null) {
+                results.add(result(row, null));
+                continue;
+            }
+            for (String country : movieCountries) {
+                results.add(result(row, country));
+            }
+        }
+        return results;
+    }
+
+    private Object[] result(int row, String country) {
+        return new Object[] {
+                titles[row],
+                years[row] == NO_YEAR ? null : years[row],
+                country,
+                nullIfNaN(round1((allCriticsRatings[row] + topCriticsRatings[row]) / 2)),
+                count(allCriticsNumReviews[row] + topCriticsNumReviews[row]),
+                nullIfNaN(audienceRatings[row]),
+                count(audienceNumReviews[row]),
+                genreLists[row],
+                tagLists[row]
+        };
+    }
+
+    // Movies having ANY or ALL of the values, or null if no value is given
+    private static MovieBitmap anyOrAll(Map<String, MovieBitmap> postings, Iterable<String> values, boolean all) {
+        MovieBitmap result = null;
+        for (String value : values) {
+            MovieBitmap rows = posting(postings, value);
+            if (result == null) {
+                result = rows;
+            }
+            else if (all) {
+                result = result.and(rows);
+            }
+            else {
+                result = result.or(rows);
+            }
+        }
+        return result;
+    }
+
+    private static MovieBitmap posting(Map<String, MovieBitmap> postings, String value) {
+        MovieBitmap rows = postings.get(value);
+        if (rows == null) {
+            return MovieBitmap.EMPTY;
+        }
+        return rows;
+    }
+
+    // ROUND((allCritics + topCritics + audience) / 3, 1) compared with the value
+    private MovieBitmap movieRatings(SearchCriteria criteria) {
+        if (SearchCriteria.isEmpty(criteria.ratingValue)) {
+            return null;
+        }
+        String op = QueryBuilder.operator(criteria.ratingOp);
+        double value = QueryBuilder.parseDouble(criteria.ratingValue, "Movie rating");
+        int[] rows = new int[size()];
+        int count = 0;
+        for (int row = 0; row < rows.length; row++) {
+            double rating = round1((allCriticsRatings[row] + topCriticsRatings[row] + audienceRatings[row]) / 3);
+            if (compare(rating, op, value)) {
+                rows[count++] = row;
+            }
+        }
+        return MovieBitmap.of(rows, count);
+    }
+
+    // ROUND((allCritics + topCritics + audience review counts) / 3, 1) compared with the value
+    private MovieBitmap movieCounts(SearchCriteria criteria) {
+        if (SearchCriteria.isEmpty(criteria.countValue)) {
+            return null;
+        }
+        String op = QueryBuilder.operator(criteria.countOp);
+        double value = QueryBuilder.parseDouble(criteria.countValue, "Movie rating count");
+        int[] rows = new int[size()];
+        int count = 0;
+        for (int row = 0; row < rows.length; row++) {
+            double reviews = round1(
+                    (allCriticsNumReviews[row] + topCriticsNumReviews[row] + audienceNumReviews[row]) / 3);
+            if (compare(reviews, op, value)) {
+                rows[count++] = row;
+            }
+        }
+        return MovieBitmap.of(rows, count);
+    }
+
+    // From and to years are inclusive
+    private MovieBitmap movieYears(SearchCriteria criteria) {
+        boolean hasFrom = !SearchCriteria.isEmpty(criteria.fromYear);
+        boolean hasTo = !SearchCriteria.isEmpty(criteria.toYear);
+        if (!hasFrom && !hasTo) {
+            return null;
+        }
+        int from = hasFrom ? QueryBuilder.parseInt(criteria.fromYear, "From year") : Integer.MIN_VALUE;
+        int to = hasTo ? QueryBuilder.parseInt(criteria.toYear, "To year") : Integer.MAX_VALUE;
+        int[] rows = new int[size()];
+        int count = 0;
+        for (int row = 0; row < rows.length; row++) {
+            int year = years[row];
+            if (year != NO_YEAR && year >= from && year <= to) {
+                rows[count++] = row;
+            }
+        }
+        return MovieBitmap.of(rows, count);
+    }
+
+    // Reads (movie_id, value) pairs into posting lists, skipping movies we do not know
+    private TreeMap<String, Postings> readPostings(Statement s, String sql) throws SQLException {
+        TreeMap<String, Postings> values = new TreeMap<>();
+        try (ResultSet rs = s.executeQuery(sql)) {
+            while (rs.next()) {
+                addPosting(values, rs.getInt(1), rs.getString(2));
+            }
+        }
+        return values;
+    }
+
+    // The same from a table of a snapshot, by dictionary code rather than by string; a table the
+    // snapshot does not have is empty
+    private TreeMap<String, Postings> readPostings(DatasetSnapshot.Table table, String column) {
+        if (table == null) {
+            return new TreeMap<>();
+        }
+        int movieColumn = table.column("movie_id");
+        int valueColumn = table.column(column);
+        Postings[] byCode = new Postings[table.dictionary(valueColumn).size()];
+        for (int i = 0; i < table.size(); i++) {
+            addPosting(byCode, table.getInt(i, movieColumn), table.getCode(i, valueColumn));
+        }
+        return toValues(byCode, table.dictionary(valueColumn));
+    }
+
+    // Tag values of the movies: user_taggedmovies joined with tags on tag_id
+    private TreeMap<String, Postings> readTagPostings(DatasetSnapshot snapshot) {
+        DatasetSnapshot.Table tags = snapshot.table("tags.dat");
+        DatasetSnapshot.Table tagged = snapshot.table("user_taggedmovies-timestamps.dat");
+        if (tagged == null) {
+            tagged = snapshot.table("user_taggedmovies.dat");
+        }
+        if (tags == null || tagged == null) {
+            return new TreeMap<>();
+        }
+        // Code of the value of each tag_id
+        int tagIdColumn = tags.column("tag_id");
+        int valueColumn = tags.column("value");
+        int maxTagId = 0;
+        for (int i = 0; i < tags.size(); i++) {
+            maxTagId = Math.max(maxTagId, tags.getInt(i, tagIdColumn));
+        }
+        int[] tagCodes = new int[maxTagId + 1];
+        Arrays.fill(tagCodes, -1);
+        for (int i = 0; i < tags.size(); i++) {
+            int tagId = tags.getInt(i, tagIdColumn);
+            if (tagId >= 0) {
+                tagCodes[tagId] = tags.getCode(i, valueColumn);
+            }
+        }
+        Postings[] byCode = new Postings[tags.dictionary(valueColumn).size()];
+        int movieColumn = tagged.column("movie_id");
+        tagIdColumn = tagged.column("tag_id");
+        for (int i = 0; i < tagged.size(); i++) {
+            int tagId = tagged.getInt(i, tagIdColumn);
+            if (tagId >= 0 && tagId < tagCodes.length) {
+                addPosting(byCode, tagged.getInt(i, movieColumn), tagCodes[tagId]);
+            }
+        }
+        return toValues(byCode, tags.dictionary(valueColumn));
+    }
+
+    private void addPosting(Postings[] byCode, int movieId, int code) {
+        int row = Arrays.binarySearch(movieIds, movieId);
+        if (row < 0 || code < 0) {
+            return;
+        }
+        if (byCode[code] == null) {
+            byCode[code] = new Postings();
+        }
+        byCode[code].add(row);
+    }
+
+    // Postings by value; the empty string is NULL in Oracle, so it has none
+    private static TreeMap<String, Postings> toValues(Postings[] byCode, DatasetSnapshot.Dictionary dictionary) {
+        TreeMap<String, Postings> values = new TreeMap<>();
+        for (int code = 0; code < byCode.length; code++) {
+            String value = dictionary.get(code);
+            if (byCode[code] != null && !value.isEmpty()) {
+                values.put(value, byCode[code]);
+            }
+        }
+        return values;
+    }
+
+    private void addPosting(TreeMap<String, Postings> values, int movieId, String value) {
+        int row = Arrays.binarySearch(movieIds, movieId);
+        if (row < 0 || value == null) {
+            return;
+        }
+        Postings postings = values.get(value);
+        if (postings == null) {
+            postings = new Postings();
+            values.put(value, postings);
+        }
+        postings.add(row);
+    }
+
+    // Joins the (sorted) values of each movie with ", ", like LISTAGG ... ORDER BY value.
+    // Movies with the same values share one String: the 10k genre lists hold under 800 distinct
+    private void toLists(TreeMap<String, Postings> values, String[] lists) {
+        StringBuilder[] builders = new StringBuilder[lists.length];
+        for (Map.Entry<String, Postings> entry : values.entrySet()) {
+            for (int row : entry.getValue().toArray()) {
+                if (builders[row] == null) {
+                    builders[row] = new StringBuilder(entry.getKey());
+                }
+                else builders[row].append(", ").append(entry.getKey());
+            }
+        }
+        HashMap<String, String> distinct = new HashMap<>();
+        for (int row = 0; row < lists.length; row++) {
+            if (builders[row] != null) {
+                String list = builders[row].toString();
+                String shared = distinct.putIfAbsent(list, list);
+                lists[row] = shared != null ? shared : list;
+            }
+        }
+    }
+
+    private void toCountryLists(TreeMap<String, Postings> values) {
+        for (Map.Entry<String, Postings> entry : values.entrySet()) {
+            for (int row : entry.getValue().toArray()) {
+                String[] list = countryLists[row];
+                if (list == null) {
+                    countryLists[row] = new String[] {entry.getKey()};
+                }
+                else {
+                    list = Arrays.copyOf(list, list.length + 1);
+                    list[list.length - 1] = entry.getKey();
+                    countryLists[row] = list;
+                }
+            }
+        }
+    }
+
+    private static Map<String, MovieBitmap> toBitmaps(TreeMap<String, Postings> values) {
+        HashMap<String, MovieBitmap> bitmaps = new HashMap<>(values.size() * 2);
+        for (Map.Entry<String, Postings> entry : values.entrySet()) {
+            bitmaps.put(entry.getKey(), MovieBitmap.of(entry.getValue().toArray()));
+        }
+        return bitmaps;
+    }
+
+    // Comparisons with NULL (NaN) are false, as in SQL
+    private static boolean compare(double left, String op, double right) {
+        switch (op) {
+            case "<":
+                return left < right;
+            case ">":
+                return left > right;
+            case "<=":
+                return left <= right;
+            case ">=":
+                return left >= right;
+            default:
+                return left == right;
+        }
+    }
+
+    // Oracle's ROUND(x, 1): half away from zero. Ratings have one decimal, so halves like 4.95
+    // come out of the division as 4.9499999...; the small offset rounds them up as NUMBER does
+    private static double round1(double x) {
+        return Math.signum(x) * Math.floor(Math.abs(x) * 10 + 0.5 + 1e-9) / 10;
+    }
+
+    private static Double nullIfNaN(double x) {
+        if (Double.isNaN(x)) {
+            return null;
+        }
+        return x;
+    }
+
+    private static Long count(double x) {
+        if (Double.isNaN(x)) {
+            return null;
+        }
+        return (long) x;
+    }
+
+    private static int getInt(ResultSet rs, int column) throws SQLException {
+        int value = rs.getInt(column);
+        if (rs.wasNull()) {
+            return NO_YEAR;
+        }
+        return value;
+    }
+
+    private static double getCount(DatasetSnapshot.Table table, int row, int column) {
+        if (table.isNull(row, column)) {
+            return Double.NaN;
+        }
+        return table.getInt(row, column);
+    }
+
+    private static double getDouble(ResultSet rs, int column) throws SQLException {
+        double value = rs.getDouble(column);
+        if (rs.wasNull()) {
+            return Double.NaN;
+        }
+        return value;
+    }
+
+    // Sorted, duplicate free rows of the movies having a value, built while loading
+    private static class Postings {
+        private int[] rows = new int[4];
+        private int size;
+        private int[] sorted;
+
+        void add(int row) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            rows[size++] = row;
+        }
+
+        int[] toArray() {
+            if (sorted != null) {
+                return sorted;
+            }
+            int[] rows = Arrays.copyOf(this.rows, size);
+            Arrays.sort(rows);
+            int count = 0;
+            for (int i = 0; i < rows.length; i++) {
+                if (count == 0 || rows[i] != rows[count - 1]) {
+                    rows[count++] = rows[i];
+                }
+            }
+            sorted = Arrays.copyOf(rows, count);
+            this.rows = null;
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.sql.*;
+
+/**
+ * The movie_summary table: one row per movie with everything a search shows or filters on that
+ * the base query otherwise computes for every matching movie, i.e. the critics averages and
+ * review sums, the /3 averages of the rating and review count searches, and the genre and tag
+ * lists. Populate refreshes it after each load and records the refresh in import_files; hw3
+ * searches it (see QueryBuilder) while it is at least as recent as the tables it comes from.
+ */
+public class MovieSummary {
+
+    public static final String TABLE = "movie_summary";
+
+    // Tables the summary is computed from; loading any of them makes it stale
+    public static final String[] SOURCES = {"movies", "movie_genres", "movie_countries", "user_taggedmovies",
+            "tags"};
+
+    // One country per movie, as QueryBuilder assumes, so movie_id is unique
+    private static final String[] CREATE = {
+            "CREATE TABLE " + TABLE + " (\n" +
+                    "\tmovie_id NUMBER PRIMARY KEY,\n" +
+                    "\ttitle VARCHAR2(300),\n" +
+                    "\tyear NUMBER,\n" +
+                    "\tcountry VARCHAR2(100),\n" +
+                    "\tcritics_rating NUMBER,\n" +
+                    "\tcritics_num_reviews NUMBER,\n" +
+                    "\taudience_rating NUMBER,\n" +
+                    "\taudience_num_reviews NUMBER,\n" +
+                    "\tavg_rating NUMBER,\n" +
+                    "\tavg_num_reviews NUMBER,\n" +
+                    "\tgenres VARCHAR2(4000),\n" +
+                    "\ttags VARCHAR2(4000)\n)",
+            // The columns the searches compare with a value
+            "CREATE INDEX " + TABLE + "_year ON " + TABLE + " (year)",
+            "CREATE INDEX " + TABLE + "_country ON " + TABLE + " (country)",
+            "CREATE INDEX " + TABLE + "_rating ON " + TABLE + " (avg_rating)",
+            "CREATE INDEX " + TABLE + "_reviews ON " + TABLE + " (avg_num_reviews)"
+    };
+
+    private MovieSummary() {
+    }
+
+    // Creates the movie_summary table and its indexes if they do not exist yet
+    public static void ensureTable(Connection con) throws SQLException {
+        try (ResultSet rs = con.getMetaData().getTables(null, null, TABLE.toUpperCase(), null)) {
+            if (rs.next()) {
+                return;
+            }
+        }
+        try (Statement stmt = con.createStatement()) {
+            for (String sql : CREATE) {
+                stmt.execute(sql);
+            }
+        }
+    }
+
+    // The rows of the summary, with the expressions of QueryBuilder's join-free query. The lists
+    // are aggregated for all movies at once and joined, rather than by a subquery per movie
+    private static String select(SqlDialect dialect) {
+        return "SELECT M.movie_id, M.title, M.year, MC.country,\n" +
+                "ROUND((M.rtAllCriticsRating + M.rtTopCriticsRating)/2, 1),\n" +
+                "M.rtAllCriticsNumReviews + M.rtTopCriticsNumReviews,\n" +
+                "M.rtAudienceRating, M.rtAudienceNumReviews,\n" +
+                QueryBuilder.AVERAGE_RATING + ",\n" + QueryBuilder.AVERAGE_REVIEWS + ",\n" +
+                "G.genres, T.tags\n" +
+                "FROM movies M left join movie_countries MC on M.movie_id = MC.movie_id\n" +
+                "left join (\n\tSELECT movie_id, " + dialect.listagg("genre", "genre") + " as genres\n" +
+                "\tFROM movie_genres GROUP BY movie_id\n) G on G.movie_id = M.movie_id\n" +
+                // Each tag once, however many users used it on the movie
+                "left join (\n\tSELECT UTG.movie_id, " + dialect.listagg("TG.value", "TG.value") + " as tags\n" +
+                "\tFROM (SELECT DISTINCT movie_id, tag_id FROM user_taggedmovies) UTG\n" +
+                "\tjoin tags TG on TG.tag_id = UTG.tag_id\n" +
+                "\tGROUP BY UTG.movie_id\n) T on T.movie_id = M.movie_id";
+    }
+
+    /**
+     * Recomputes every row from the source tables and records the refresh in import_files, in
+     * one transaction of con. Returns the number of movies
+     */
+    public static int refresh(Connection con, SqlDialect dialect) throws SQLException {
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try (Statement stmt = con.createStatement()) {
+            stmt.executeUpdate(dialect.deleteAll(TABLE));
+            int rows = stmt.executeUpdate("INSERT INTO " + TABLE + "\n" + select(dialect));
+            ImportLog.record(con, TABLE, TABLE, null, rows);
+            con.commit();
+            // Without statistics the new rows look like an empty table, and joins start from it
+            stmt.execute(dialect.analyze(TABLE));
+            return rows;
+        }
+        catch (SQLException e) {
+            con.rollback();
+            throw e;
+        }
+        finally {
+            con.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Whether the summary exists and was refreshed after the last load of each table it comes
+     * from. False if Populate never recorded a refresh (or never created import_files)
+     */
+    public static boolean isCurrent(Connection con) throws SQLException {
+        try (ResultSet rs = con.getMetaData().getTables(null, null, TABLE.toUpperCase(), null)) {
+            if (!rs.next()) {
+                return false;
+            }
+        }
+        Timestamp refreshed;
+        try {
+            refreshed = ImportLog.lastLoaded(con, TABLE);
+        }
+        catch (SQLException e) {
+            return false; // No import_files table
+        }
+        if (refreshed == null) {
+            return false;
+        }
+        for (String source : SOURCES) {
+            Timestamp loaded = ImportLog.lastLoaded(con, source);
+            if (loaded != null && loaded.after(refreshed)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
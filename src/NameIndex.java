@@ -0,0 +1,202 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Prefix index over person names (actors, directors) for type-ahead completion.
+ * Every name is indexed under its folded form (lower case, accents removed, so "jose" finds
+ * "Jos\u00e9") and under the folded form starting at each later word (so "hanks" finds
+ * "Tom Hanks"). The keys are kept in two sorted arrays, whole names and later words; a lookup
+ * binary searches the range of keys starting with the prefix and keeps the best matches:
+ * whole-name matches first, then shorter names, then alphabetical order. Under a millisecond
+ * on the ~95k actors even for one letter (see benchmarks.NameIndexBenchmark).
+ */
+public class NameIndex {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    // Set in the rank of later-word matches
+    private static final long WORD_MATCH = 1L << 62;
+
+    private final String[] names;
+    // Folded keys, sorted, with the name each one belongs to and that name's rank
+    private final String[] nameKeys;
+    private final int[] nameIds;
+    private final long[] nameRanks;
+    private final String[] wordKeys;
+    private final int[] wordIds;
+    private final long[] wordRanks;
+
+    public NameIndex(List<String> values) {
+        names = values.toArray(new String[0]);
+        // Rank of each name: shorter first, then alphabetical; later-word matches after all
+        // whole-name ones. Precomputed, so a lookup only compares longs
+        Integer[] alphabetical = new Integer[names.length];
+        for (int id = 0; id < names.length; id++) {
+            alphabetical[id] = id;
+        }
+        Arrays.sort(alphabetical, Comparator.comparing((Integer id) -> names[id]));
+        long[] ranks = new long[names.length];
+        for (int position = 0; position < names.length; position++) {
+            int id = alphabetical[position];
+            ranks[id] = ((long) names[id].length() << 32) | position;
+        }
+
+        ArrayList<Key> whole = new ArrayList<>(names.length);
+        ArrayList<Key> words = new ArrayList<>(names.length * 2);
+        for (int id = 0; id < names.length; id++) {
+            String folded = fold(names[id]);
+            whole.add(new Key(folded, id));
+            for (int i = 1; i < folded.length(); i++) {
+                if (folded.charAt(i - 1) == ' ' && folded.charAt(i) != ' ') {
+                    words.add(new Key(folded.substring(i), id));
+                }
+            }
+        }
+        Key[] sorted = sort(whole);
+        nameKeys = new String[sorted.length];
+        nameIds = new int[sorted.length];
+        nameRanks = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            nameKeys[i] = sorted[i].key;
+            nameIds[i] = sorted[i].id;
+            nameRanks[i] = ranks[sorted[i].id];
+        }
+        sorted = sort(words);
+        wordKeys = new String[sorted.length];
+        wordIds = new int[sorted.length];
+        wordRanks = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            wordKeys[i] = sorted[i].key;
+            wordIds[i] = sorted[i].id;
+            wordRanks[i] = WORD_MATCH | ranks[sorted[i].id];
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Lower case without accents and with runs of spaces (and punctuation) collapsed, so names
+     * compare the way people type them
+     */
+    public static String fold(String s) {
+        String decomposed = Normalizer.normalize(s, Normalizer.Form.NFD);
+        String lower = MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(lower.length());
+        boolean space = true; // Drops leading spaces
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+                space = false;
+            }
+            else if (Character.isWhitespace(c) || c == '-' || c == '.' || c == ',') {
+                if (!space) {
+                    sb.append(' ');
+                    space = true;
+                }
+            }
+            else sb.append(c);
+        }
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) == ' ') {
+            end--;
+        }
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    /**
+     * Returns up to limit names matching the typed prefix, best first
+     */
+    public List<String> complete(String typed, int limit) {
+        String prefix = fold(typed);
+        ArrayList<String> result = new ArrayList<>();
+        if (prefix.isEmpty() || limit <= 0) {
+            return result;
+        }
+        // Best matches so far, sorted by rank
+        long[] bestRanks = new long[limit];
+        int[] bestIds = new int[limit];
+        int count = collect(nameKeys, nameIds, nameRanks, prefix, bestRanks, bestIds, 0);
+        if (count < limit) {
+            // Later words only rank after whole names; skip them if whole names filled the list
+            count = collect(wordKeys, wordIds, wordRanks, prefix, bestRanks, bestIds, count);
+        }
+        for (int i = 0; i < count; i++) {
+            result.add(names[bestIds[i]]);
+        }
+        return result;
+    }
+
+    // Adds the keys starting with prefix to the best matches, returns how many there are now
+    private static int collect(String[] keys, int[] ids, long[] ranks, String prefix,
+                               long[] bestRanks, int[] bestIds, int count) {
+        int limit = bestRanks.length;
+        int from = lowerBound(keys, prefix);
+        int to = lowerBound(keys, prefix + Character.MAX_VALUE);
+        for (int i = from; i < to; i++) {
+            long rank = ranks[i];
+            if (count == limit && rank >= bestRanks[limit - 1]) {
+                continue;
+            }
+            if (contains(bestIds, count, ids[i])) {
+                // Another word of a name already kept, which ranks the same or better
+                continue;
+            }
+            // Insertion into the few kept matches
+            int j = count == limit ? limit - 1 : count++;
+            while (j > 0 && bestRanks[j - 1] > rank) {
+                bestRanks[j] = bestRanks[j - 1];
+                bestIds[j] = bestIds[j - 1];
+                j--;
+            }
+            bestRanks[j] = rank;
+            bestIds[j] = ids[i];
+        }
+        return count;
+    }
+
+    private static boolean contains(int[] ids, int count, int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // First position whose key is not less than prefix
+    private static int lowerBound(String[] keys, String prefix) {
+        int lo = 0, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(prefix) < 0) {
+                lo = mid + 1;
+            }
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static Key[] sort(List<Key> keys) {
+        Key[] sorted = keys.toArray(new Key[0]);
+        Arrays.sort(sorted, Comparator.comparing((Key k) -> k.key));
+        return sorted;
+    }
+
+    private static class Key {
+        final String key;
+        final int id;
+
+        Key(String key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the distinct values of a column (genres, countries, directors, actors) for the hw3 pick
+ * lists, in the background and in parallel, each on its own connection.
+ * Every list is saved to a snapshot file along with the version of its table: when it was last
+ * loaded according to import_files, or its row count if Populate never logged it. A snapshot is
+ * handed out straight away, without connecting; the version is then checked in the background
+ * and, if the table changed, the list is queried again and handed out a second time.
+ * A list is loaded once however many parts of the GUI ask for it.
+ */
+public class PickLists {
+
+    // Opens (or borrows) a connection; closing it releases it
+    public interface Connector {
+        Connection open() throws SQLException;
+    }
+
+    // Receives a list; called on a loader thread, possibly twice (snapshot, then fresh values)
+    public interface Listener {
+        void loaded(List<String> values);
+    }
+
+    private static final String VERSION = "version\t";
+    private static final int FETCH_SIZE = 1000;
+
+    private final Connector connector;
+    private final File dir;
+    private final ExecutorService executor;
+    // Listeners of each list ("table.column") asked for so far, and the last values handed out
+    private final Map<String, List<Listener>> listeners = new HashMap<>();
+    private final Map<String, List<String>> loaded = new HashMap<>();
+
+    public PickLists(Connector connector, File dir, int threads) {
+        this.connector = connector;
+        this.dir = dir;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "pick-lists");
+            t.setDaemon(true); // Do not keep the application alive
+            return t;
+        });
+    }
+
+    // Loads the sorted distinct values of table.column in the background
+    public void load(String table, String column, Listener listener) {
+        String key = table + "." + column;
+        synchronized (this) {
+            List<Listener> waiting = listeners.get(key);
+            if (waiting != null) {
+                // Already loading or loaded: hand out what we have, and any fresher values later
+                waiting.add(listener);
+                List<String> values = loaded.get(key);
+                if (values != null) {
+                    executor.execute(() -> listener.loaded(values));
+                }
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(listener);
+            listeners.put(key, waiting);
+        }
+        executor.execute(() -> {
+            File snapshot = new File(dir, key + ".txt");
+            Snapshot saved = read(snapshot);
+            if (saved != null) {
+                handOut(key, saved.values);
+            }
+            Connection con = null;
+            try {
+                long start = System.nanoTime();
+                con = connector.open();
+                String version = version(con, table);
+                if (saved != null && saved.version.equals(version)) {
+                    return;
+                }
+                List<String> values = distinctValues(con, table, column);
+                System.out.printf("Loaded %d %s values in %.2fs%n", values.size(), column,
+                        (System.nanoTime() - start) / 1e9);
+                write(snapshot, version, values);
+                handOut(key, values);
+            }
+            catch (SQLException e) {
+                System.out.println("Cannot load the " + column + " list:");
+                while (e != null) {
+                    System.out.println("Message: " + e.getMessage());
+                    System.out.println("SQLState: " + e.getSQLState());
+                    System.out.println("Vendor Error: " + e.getErrorCode());
+                    e = e.getNextException();
+                }
+            }
+            finally {
+                if (con != null) {
+                    try {
+                        con.close();
+                    }
+                    catch (SQLException e) {
+                        System.err.println("Cannot close connection: " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private void handOut(String key, List<String> values) {
+        List<Listener> waiting;
+        synchronized (this) {
+            loaded.put(key, values);
+            waiting = new ArrayList<>(listeners.get(key));
+        }
+        for (Listener listener : waiting) {
+            listener.loaded(values);
+        }
+    }
+
+    // Changes when the table is reloaded
+    private static String version(Connection con, String table) throws SQLException {
+        try {
+            Timestamp loaded = ImportLog.lastLoaded(con, table);
+            if (loaded != null) {
+                return "loaded " + loaded;
+            }
+        }
+        catch (SQLException e) {
+            // No import_files table: fall back to the row count
+        }
+        try (Statement s = con.createStatement();
+             ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return "rows " + rs.getLong(1);
+        }
+    }
+
+    private static List<String> distinctValues(Connection con, String table, String column) throws SQLException {
+        String sql = "SELECT DISTINCT " + column + " FROM " + table + " WHERE " + column + " IS NOT NULL ORDER BY "
+                + column + " ASC";
+        ArrayList<String> values = new ArrayList<>();
+        try (Statement s = con.createStatement()) {
+            s.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = s.executeQuery(sql)) {
+                while (rs.next()) {
+                    values.add(rs.getString(1));
+                }
+            }
+        }
+        return values;
+    }
+
+    private static class Snapshot {
+        final String version;
+        final List<String> values;
+
+        Snapshot(String version, List<String> values) {
+            this.version = version;
+            this.values = values;
+        }
+    }
+
+    // Returns the saved list, or null if there is none or it cannot be read
+    private static Snapshot read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = br.readLine();
+            if (header == null || !header.startsWith(VERSION)) {
+                return null;
+            }
+            ArrayList<String> values = new ArrayList<>();
+            String line;
+            while ((line = br.readLine()) != null) {
+                values.add(line);
+            }
+            return new Snapshot(header.substring(VERSION.length()), values);
+        }
+        catch (IOException e) {
+            System.out.println(file + " could not be read: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Writes to a temporary file first, so a reader never sees half a list
+    private void write(File file, String version, List<String> values) {
+        try {
+            Files.createDirectories(dir.toPath());
+            File tmp = new File(dir, file.getName() + ".tmp");
+            try (BufferedWriter bw = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+                bw.write(VERSION + version);
+                bw.newLine();
+                for (String value : values) {
+                    bw.write(value);
+                    bw.newLine();
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e) {
+            System.out.println(file + " could not be written: " + e.getMessage());
+        }
+    }
+}
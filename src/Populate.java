@@ -1,10 +1,25 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.*;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * To compile, make sure you have ojbdc6.jar in the same directory and
@@ -13,71 +28,372 @@ import java.util.HashMap;
  * The only tables/files we need are: movies, movie_genres, movie_directors,
  * movie_actors, movie_countries, tags, user_taggedmovies,
  * user_ratedmovies
+ *
+ * Rows are sent to the database in chunks of populate.batchSize rows (default 1000),
+ * each chunk committed on its own, e.g. "java -Dpopulate.batchSize=5000 -cp .:ojdbc6.jar Populate *"
+ * movies.dat and tags.dat are imported first; the remaining files are then imported
+ * concurrently on up to populate.threads connections (default: number of cores)
+ * With -Dpopulate.pipeline=true each file is parsed on a reader thread that feeds the
+ * thread executing the batches through a queue of populate.queueDepth chunks (default 8)
+ * With -Dpopulate.mmap=true each file is memory-mapped and split into populate.ranges ranges
+ * (default: number of cores) that are parsed and inserted in parallel, each on its own connection
+ * With -Dpopulate.reload=truncate tables are truncated instead of deleted, and their non-unique
+ * indexes and foreign keys are rebuilt/enabled once after the load (see TableReload)
+ * With -Dpopulate.incremental=true files unchanged since the last import are skipped, and files
+ * that only had lines appended get just the new lines inserted (see ImportLog)
+ * Every import is recorded in import_files, whose loaded_at tells readers such as hw3 when
+ * tables were reloaded
+ * Connections come from a ConnectionPool sized for the threads above (-Ddb.poolSize overrides it),
+ * so each thread connects once however many files it imports
+ * With -Dpopulate.snapshot=data/moviedb.snapshot the rows of the files are read from that snapshot
+ * (see DatasetSnapshot) instead of parsed, for each file the snapshot is up to date with
+ * After the load the movie_summary table hw3 searches is recomputed if any table it comes from
+ * was loaded since its last refresh (see MovieSummary); -Dpopulate.summary=false skips it
+ * Then the indexes the searches need are created if missing (see IndexAdvisor), and the tables
+ * each search predicate still reads in full are printed; -Dpopulate.indexes=false skips it
+ * With -Ddb.embedded=true the files are imported into the H2 database of EmbeddedDatabase, whose
+ * tables are created first if needed, e.g.
+ * "java -Ddb.embedded=true -cp .:h2-2.2.224.jar Populate movies.dat tags.dat movie_genres.dat"
  */
 
 public class Populate {
 
-    private static SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy");
-    private HashMap<String, Charset> encodings;
+    // Number of rows buffered in the driver before a batch is executed and committed
+    private static final int DEFAULT_BATCH_SIZE = 1000;
 
-    private void run(String[] args) {
+    // Files the other tables depend on; they are imported before any other file
+    private static final String[] PARENT_FILES = {"movies.dat", "tags.dat"};
+
+    // SimpleDateFormat is not thread safe and files are imported concurrently
+    private static final ThreadLocal<SimpleDateFormat> sdf =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat("MM/dd/yyyy"));
+    private HashMap<String, Charset> encodings = buildEncodingsMap();
+    // Tables the files of the current run load into
+    private final Set<String> runTables = new HashSet<>();
+    private int batchSize = Integer.getInteger("populate.batchSize", DEFAULT_BATCH_SIZE);
+    // Maximum number of files imported at the same time, each on its own connection
+    private int threads = Integer.getInteger("populate.threads", Runtime.getRuntime().availableProcessors());
+    // Parse on a separate thread from the one binding and executing the batches
+    private boolean pipeline = Boolean.getBoolean("populate.pipeline");
+    // Chunks of parsed rows allowed to wait for the writer before the reader blocks
+    private int queueDepth = Integer.getInteger("populate.queueDepth", 8);
+    // Memory-map each file and import it as populate.ranges ranges in parallel
+    private boolean mmap = Boolean.getBoolean("populate.mmap");
+    private int ranges = Integer.getInteger("populate.ranges", Runtime.getRuntime().availableProcessors());
+    // Truncate tables and defer index/constraint maintenance instead of deleting row by row
+    private boolean truncate = "truncate".equalsIgnoreCase(System.getProperty("populate.reload"));
+    // Skip files unchanged since the last import and only insert the new lines of grown files
+    private boolean incremental = Boolean.getBoolean("populate.incremental");
+    // Rows are read from this snapshot of data/ (see DatasetSnapshot) instead of parsing the files
+    private String snapshotFile = System.getProperty("populate.snapshot");
+    // Refresh movie_summary after the load
+    private boolean summary = Boolean.parseBoolean(System.getProperty("populate.summary", "true"));
+    // Create the missing search indexes after the load and report the predicates' full scans
+    private boolean indexes = Boolean.parseBoolean(System.getProperty("populate.indexes", "true"));
+    private DatasetSnapshot snapshot;
+    // Whether loads are recorded in import_files (readers such as hw3 watch it for reloads)
+    private boolean logImports;
+    // Connections of the importing threads, each opened once and reused from file to file
+    private ConnectionPool connections;
+    // SQL of the database the pool connects to (dates, deletes)
+    private SqlDialect dialect;
+    // Parse rate of each file (parse.<file>), batch latency and rows committed; see Metrics
+    private final Metrics metrics = Metrics.of("Populate");
+    private final Metrics.Histogram batchLatency = metrics.latency("batch");
+    private final Metrics.Meter committed = metrics.meter("committed", "rows");
+
+    // Package-private, like processLine and nextRow, for the benchmarks (see benchmarks/)
+    void run(String[] args) {
+        if (batchSize < 1) {
+            batchSize = DEFAULT_BATCH_SIZE;
+        }
+        try {
+            // Every importing thread holds a connection, and so does each range of a mapped file
+            int perThread = mmap ? Math.max(1, ranges) + 1 : 1;
+            connections = ConnectionPool.fromConnectionFile("Populate", Math.max(1, threads) * perThread);
+            dialect = connections.getDialect();
+        }
+        catch (ClassNotFoundException e) {
+            System.err.println("Cannot find the database driver");
+            return;
+        }
+        if (snapshotFile != null) {
+            try {
+                snapshot = DatasetSnapshot.open(new File(snapshotFile));
+            }
+            catch (IOException e) {
+                System.out.println("Cannot read " + snapshotFile + ", parsing the files instead: " + e.getMessage());
+            }
+        }
+        try {
+            importFiles(args);
+        }
+        finally {
+            System.out.println(connections);
+            System.out.println(metrics);
+            connections.close();
+        }
+    }
+
+    private void importFiles(String[] args) {
+        if (EmbeddedDatabase.isEnabled() && !createSchema()) {
+            return;
+        }
+        logImports = createImportLog();
+        if (incremental && !logImports) {
+            return;
+        }
+        runTables.clear();
+        for (String filename : args) {
+            runTables.add(tableOf(filename));
+        }
+        // movies and tags are referenced by the other tables, so they are loaded first
+        ArrayList<String> parents = new ArrayList<>();
+        ArrayList<String> children = new ArrayList<>();
+        for (String filename : args) {
+            if (Arrays.asList(PARENT_FILES).contains(filename)) {
+                parents.add(filename);
+            }
+            else {
+                children.add(filename);
+            }
+        }
+        long start = System.nanoTime();
+        importAll(parents);
+        // The remaining tables only depend on the parents, not on each other
+        importAll(children);
+        System.out.println(String.format("Imported %d file(s) in %.2fs", args.length,
+                (System.nanoTime() - start) / 1e9));
+        if (summary && logImports) {
+            refreshSummary();
+        }
+        if (indexes) {
+            checkIndexes();
+        }
+    }
+
+    // Creates the indexes the searches filter on that do not exist yet, and reports the plans
+    private void checkIndexes() {
+        Connection con = null;
+        try {
+            con = openConnection();
+            for (String sql : IndexAdvisor.ensureIndexes(con, dialect)) {
+                System.out.println(sql);
+            }
+            System.out.println(IndexAdvisor.report(con, dialect));
+        }
+        catch (SQLException e) {
+            System.out.println("Cannot check the indexes of the searches");
+            while (e != null) {
+                System.out.println("Message: " + e.getMessage());
+                System.out.println("SQLState: " + e.getSQLState());
+                System.out.println("Vendor Error: " + e.getErrorCode());
+                e = e.getNextException();
+            }
+        }
+        finally {
+            closeConnection(con);
+        }
+    }
+
+    // Recomputes movie_summary unless it is already as recent as the tables it comes from,
+    // e.g. when an incremental import skipped all of them
+    private void refreshSummary() {
+        Connection con = null;
+        try {
+            con = openConnection();
+            MovieSummary.ensureTable(con);
+            if (MovieSummary.isCurrent(con)) {
+                return;
+            }
+            long start = System.nanoTime();
+            int rows = MovieSummary.refresh(con, dialect);
+            System.out.println(String.format("Refreshed %s (%d movies) in %.2fs", MovieSummary.TABLE, rows,
+                    (System.nanoTime() - start) / 1e9));
+        }
+        catch (SQLException e) {
+            System.out.println("Cannot refresh " + MovieSummary.TABLE + ", hw3 will search the tables instead");
+            while (e != null) {
+                System.out.println("Message: " + e.getMessage());
+                System.out.println("SQLState: " + e.getSQLState());
+                System.out.println("Vendor Error: " + e.getErrorCode());
+                e = e.getNextException();
+            }
+        }
+        finally {
+            closeConnection(con);
+        }
+    }
+
+    // Creates the tables of the embedded database that do not exist yet
+    private boolean createSchema() {
+        Connection con = null;
+        try {
+            con = openConnection();
+            EmbeddedDatabase.ensureSchema(con);
+            return true;
+        }
+        catch (SQLException e) {
+            System.out.println("Cannot create the tables: " + e.getMessage());
+        }
+        finally {
+            closeConnection(con);
+        }
+        return false;
+    }
+
+    // Makes sure the import_files table exists; incremental imports need it, other imports just log to it
+    private boolean createImportLog() {
+        Connection con = null;
+        try {
+            con = openConnection();
+            ImportLog.ensureTable(con);
+            return true;
+        }
+        catch (SQLException e) {
+            System.out.println("Cannot create " + ImportLog.TABLE + ": " + e.getMessage());
+        }
+        finally {
+            closeConnection(con);
+        }
+        return false;
+    }
+
+    // Imports each file on its own thread and connection, and waits for all of them to finish
+    private void importAll(List<String> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        int poolSize = Math.max(1, Math.min(threads, files.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        ArrayList<Future<?>> tasks = new ArrayList<>();
+        for (String filename : files) {
+            tasks.add(pool.submit(() -> importFile(filename)));
+        }
+        pool.shutdown();
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                tasks.get(i).get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+                return;
+            }
+            catch (ExecutionException e) {
+                System.err.println("Import of " + files.get(i) + " failed: " + e.getCause());
+            }
+        }
+    }
+
+    private void importFile(String filename) {
         Connection con = null;
         ArrayList<Integer> columnTypes = null;
         try {
             // Step 1. Connect to the database
             con = openConnection();
-            System.out.println("connection opened");
+            System.out.println("connection opened for " + filename);
+            // Commit once per chunk instead of once per row
+            con.setAutoCommit(false);
             // Step 2. Get Database metadata
             DatabaseMetaData dbmd = con.getMetaData();
-            // Step 3. For each of the files specified, import data to appropriate tables
-            for (String filename : args) {
-                // Table name is file name without .dat extension
-                String table = filename.replace(".dat", "");
-                if (table.contains("-")) {
-                    table = table.substring(0, table.indexOf("-"));
+            // Step 3. Import data of the file to the appropriate table
+            String table = tableOf(filename);
+            // Get column types / check table existence
+            columnTypes = getColumnTypes(dbmd, table);
+            int numColumns = columnTypes.size();
+            if (numColumns > 0) {
+                // Step 4. In incremental mode, compare the file with what was imported last time
+                ImportLog.Fingerprint fingerprint = null;
+                ImportLog.Entry previous = null;
+                if (incremental) {
+                    previous = ImportLog.find(con, filename);
+                    try {
+                        fingerprint = ImportLog.fingerprint("data/" + filename,
+                                previous == null ? -1 : previous.length);
+                    }
+                    catch (IOException e) {
+                        System.out.println(filename + " could not be read: " + e.getMessage());
+                        return;
+                    }
+                    if (fingerprint.isUnchanged(previous)) {
+                        System.out.println(filename + " is unchanged since the last import, skipped");
+                        return;
+                    }
                 }
-                // Get column types / check table existence
-                columnTypes = getColumnTypes(dbmd, table);
-                int numColumns = columnTypes.size();
-                if (numColumns > 0) {
-                    // Delete all entries
-                    deleteTable(con, table);
-                    // Generate appropriate insert statement
-                    String insertStatement = generateInsertSQL(table, numColumns);
-                    PreparedStatement ps = con.prepareStatement(insertStatement);
-                    buildEncodingsMap();
-                    try (BufferedReader br = new BufferedReader(new InputStreamReader(
-                            new FileInputStream("data/" + filename), encodings.get(filename)))) {
-                        String line = br.readLine(); // Ignore headers
-                        while ((line = br.readLine()) != null) {
-                            String[] values = processLine(filename, line, numColumns); // Get values to be inserted
-                            for (int i = 0; i < values.length; i++) {
-                                if (values[i].equals("\\N")) {
-                                    ps.setNull(i + 1, columnTypes.get(i));
-                                }
-                                else {
-                                    if (columnTypes.get(i).equals(Types.TIMESTAMP)) {
-                                        ps.setString(i +1, values[i]);
-                                    }
-                                    else {
-                                        ps.setObject(i + 1, values[i], columnTypes.get(i));
-                                    }
-                                }
-                            }
-                            ps.addBatch();
+                // Only the lines after what was imported last time are new
+                boolean append = fingerprint != null && fingerprint.isAppendOf(previous);
+                // Delete all entries, unless we are only adding new lines
+                TableReload reload = null;
+                if (!append) {
+                    reload = truncate ? TableReload.prepare(con, table) : null;
+                    if (reload == null) {
+                        deleteTable(con, table);
+                    }
+                    // Other files of the table (user_taggedmovies.dat and -timestamps.dat) lost
+                    // their rows too: the next incremental import must not skip or append them
+                    if (logImports) {
+                        ImportLog.forget(con, table);
+                    }
+                }
+                // Generate appropriate insert statement
+                String insertStatement = generateInsertSQL(table, numColumns);
+                long start = System.nanoTime();
+                try {
+                    long rows;
+                    if (append) {
+                        System.out.println(filename + " has grown since the last import, inserting the new lines");
+                        // The new lines are committed chunk by chunk: until the entry is recorded
+                        // below, keep none, so an append failing halfway is followed by a full
+                        // reload rather than by a second append of the chunks already committed
+                        ImportLog.record(con, filename, table, null, previous.rows);
+                        con.commit();
+                        rows = importStream(con, filename, previous.length, insertStatement, columnTypes);
+                    }
+                    else if (snapshot != null && snapshot.isCurrent(filename)
+                            && snapshot.table(filename).getColumnCount() == numColumns) {
+                        rows = importSnapshot(con, filename, insertStatement, columnTypes);
+                    }
+                    else if (mmap) {
+                        // The ranges insert on their own connections and must not wait on our delete
+                        con.commit();
+                        try {
+                            rows = importMapped(filename, insertStatement, columnTypes);
+                        }
+                        catch (IOException | SQLException e) {
+                            // The other ranges committed their chunks: leave the table empty, as
+                            // the failure of any other import does, rather than half loaded
+                            deleteTable(con, table);
+                            con.commit();
+                            throw e;
                         }
-                        ps.executeBatch();
                     }
-                    catch (IOException e) {
-                        System.out.println(filename + " not found: " + e.getMessage());
+                    else {
+                        rows = importStream(con, filename, 0, insertStatement, columnTypes);
+                    }
+                    reportRate(filename, rows, System.nanoTime() - start);
+                    if (logImports) {
+                        // Without a fingerprint the next incremental import reloads the file in full
+                        ImportLog.record(con, filename, table, fingerprint, append ? previous.rows + rows : rows);
+                        con.commit();
                     }
                 }
-                else {
-                    System.out.println("WARNING: You wanted to import " + filename
-                            + " but the table does not exist.\nThe file may not be needed" +
-                            " or you may need to run @createdb.sql");
+                catch (IOException e) {
+                    System.out.println(filename + " could not be read: " + e.getMessage());
+                    con.rollback();
+                }
+                finally {
+                    if (reload != null) {
+                        // Rebuild the indexes and enable the constraints once all rows are in
+                        reload.finish();
+                    }
                 }
             }
+            else {
+                System.out.println("WARNING: You wanted to import " + filename
+                        + " but the table does not exist.\nThe file may not be needed" +
+                        " or you may need to run @createdb.sql");
+            }
         }
         catch (SQLException e) {
             while (e != null) {
@@ -87,111 +403,353 @@ public class Populate {
                 e = e.getNextException();
             }
         }
-        catch (ClassNotFoundException e) {
-            System.err.println("Cannot find the database driver");
+        finally {
+            closeConnection(con);
+        }
+    }
+
+    /**
+     * Reads the file sequentially from offset (0 for the whole file, which skips the headers) and
+     * inserts it on con. Returns the number of rows imported
+     */
+    private int importStream(Connection con, String filename, long offset, String insertStatement,
+                             ArrayList<Integer> columnTypes) throws IOException, SQLException {
+        try (FileInputStream in = new FileInputStream("data/" + filename);
+             PreparedStatement ps = con.prepareStatement(insertStatement)) {
+            FieldTokenizer tokenizer = new FieldTokenizer(in, encodings.get(filename));
+            if (offset > 0) {
+                in.getChannel().position(offset);
+            }
+            else {
+                tokenizer.next(); // Ignore headers
+            }
+            if (!pipeline) {
+                int rows = insertRows(con, ps, filename, row -> nextRow(filename, tokenizer, row), columnTypes);
+                flush(con, ps);
+                return rows;
+            }
+            // Parse on a reader thread while this thread binds and executes the batches
+            ImportPipeline importPipeline = new ImportPipeline(queueDepth);
+            int[] pending = {0};
+            int rows = importPipeline.run(columnTypes.size(),
+                    row -> nextRow(filename, tokenizer, row),
+                    row -> {
+                        row.bind(ps, columnTypes);
+                        ps.addBatch();
+                        if (++pending[0] % batchSize == 0) {
+                            flush(con, ps);
+                        }
+                    });
+            flush(con, ps);
+            metrics.meter("parse." + filename, "rows").record(rows, importPipeline.getReaderParseNanos());
+            System.out.println(filename + ": " + importPipeline.report());
+            return rows;
+        }
+    }
+
+    /**
+     * Memory-maps the file in populate.ranges ranges split on line boundaries and imports the ranges
+     * concurrently, each parsed on its own thread into its own batch and connection.
+     * Returns the number of rows imported
+     */
+    private int importMapped(String filename, String insertStatement, ArrayList<Integer> columnTypes)
+            throws IOException, SQLException {
+        ArrayList<Future<Integer>> tasks = new ArrayList<>();
+        ExecutorService pool;
+        try (FileChannel channel = FileChannel.open(Paths.get("data", filename), StandardOpenOption.READ)) {
+            long[] bounds = splitRanges(channel, Math.max(1, ranges));
+            pool = Executors.newFixedThreadPool(bounds.length - 1);
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                // A mapping stays valid after its channel is closed
+                MappedByteBuffer range = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i],
+                        bounds[i + 1] - bounds[i]);
+                tasks.add(pool.submit(() -> importRange(filename, range, insertStatement, columnTypes)));
+            }
+            pool.shutdown();
+        }
+        int rows = 0;
+        try {
+            for (Future<Integer> task : tasks) {
+                rows += task.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pool.shutdownNow();
+            throw new IOException("Import of " + filename + " interrupted", e);
+        }
+        catch (ExecutionException e) {
+            stopRanges(tasks, pool);
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Cannot import a range of " + filename + ": " + cause, cause);
+        }
+        return rows;
+    }
+
+    // Cancels the ranges still importing once one has failed, and waits until they stopped
+    // committing: the caller then deletes the rows they committed
+    private static void stopRanges(ArrayList<Future<Integer>> tasks, ExecutorService pool) {
+        for (Future<Integer> task : tasks) {
+            task.cancel(true);
+        }
+        pool.shutdownNow();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Waiting for the other ranges to stop");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Imports the rows of one mapped range on a connection of its own, until it is cancelled
+    private int importRange(String filename, ByteBuffer range, String insertStatement,
+                            ArrayList<Integer> columnTypes) throws IOException, SQLException {
+        Connection con = null;
+        try {
+            con = openConnection();
+            con.setAutoCommit(false);
+            try (PreparedStatement ps = con.prepareStatement(insertStatement)) {
+                FieldTokenizer tokenizer = new FieldTokenizer(range, encodings.get(filename));
+                int rows = insertRows(con, ps, filename, row -> {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedIOException("Import of a range of " + filename + " cancelled");
+                    }
+                    return nextRow(filename, tokenizer, row);
+                }, columnTypes);
+                flush(con, ps);
+                return rows;
+            }
         }
         finally {
             closeConnection(con);
         }
     }
 
-    private String[] processLine(String fileName, String line, int numColumns) {
-        String[] values = new String[numColumns];
-        String[] split = line.split("\t");
+    /**
+     * Returns the offsets splitting the data of the file (after the header line) into at most n ranges
+     * of about the same size, each ending just after a line break. Range i is [bounds[i], bounds[i+1])
+     */
+    private long[] splitRanges(FileChannel channel, int n) throws IOException {
+        long size = channel.size();
+        long start = nextLine(channel, 0); // Skip headers
+        ArrayList<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        for (int i = 1; i < n; i++) {
+            long bound = nextLine(channel, start + (size - start) * i / n);
+            if (bound > bounds.get(bounds.size() - 1) && bound < size) {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // Returns the offset just after the first line break at or after position, or the file size
+    private long nextLine(FileChannel channel, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long size = channel.size();
+        while (position < size) {
+            buf.clear();
+            int n = channel.read(buf, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return size;
+    }
+
+    /**
+     * Inserts the rows of the file's table in the snapshot, instead of parsing the file.
+     * Returns the number of rows imported
+     */
+    private int importSnapshot(Connection con, String filename, String insertStatement,
+                               ArrayList<Integer> columnTypes) throws IOException, SQLException {
+        System.out.println(filename + ": reading its rows from " + snapshot.getFile());
+        try (PreparedStatement ps = con.prepareStatement(insertStatement)) {
+            int rows = insertRows(con, ps, filename, snapshot.table(filename).rows(), columnTypes);
+            flush(con, ps);
+            return rows;
+        }
+    }
+
+    // Binds and batches every remaining row of source (the parsed lines of the file or a snapshot
+    // of them), flushing every batchSize rows.
+    // Returns the number of rows; the last partial batch is left for the caller to flush
+    private int insertRows(Connection con, PreparedStatement ps, String filename, ImportPipeline.RowParser source,
+                           ArrayList<Integer> columnTypes) throws IOException, SQLException {
+        ImportRow row = new ImportRow(columnTypes.size()); // Reused for every line
+        int rows = 0;
+        // Time parsing and binding, i.e. all but the flushes, measured per chunk rather than per row
+        long parseNanos = 0;
+        long start = System.nanoTime();
+        while (source.next(row)) {
+            row.bind(ps, columnTypes);
+            ps.addBatch();
+            rows++;
+            if (rows % batchSize == 0) {
+                parseNanos += System.nanoTime() - start;
+                // Flush the chunk so the driver never holds more than batchSize rows
+                flush(con, ps);
+                start = System.nanoTime();
+            }
+        }
+        parseNanos += System.nanoTime() - start;
+        metrics.meter("parse." + filename, "rows").record(rows, parseNanos);
+        return rows;
+    }
+
+    // Sends the pending batch to the database and commits it
+    private void flush(Connection con, PreparedStatement ps) throws SQLException {
+        long start = System.nanoTime();
+        int rows = ps.executeBatch().length;
+        con.commit();
+        long elapsed = System.nanoTime() - start;
+        if (rows > 0) {
+            batchLatency.record(elapsed);
+            committed.record(rows, elapsed);
+        }
+    }
+
+    private void reportRate(String filename, long rows, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        double rate = seconds > 0 ? rows / seconds : rows;
+        System.out.println(String.format("%s: %d rows in %.2fs (%.0f rows/sec, batch size %d)",
+                filename, rows, seconds, rate, batchSize));
+    }
+
+    // Reads lines until one holds a row for fileName's table and copies it into row.
+    // Returns false at the end of the file
+    boolean nextRow(String fileName, FieldTokenizer tokenizer, ImportRow row) throws IOException {
+        while (tokenizer.next()) {
+            if (processLine(fileName, tokenizer, row)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Copies the columns of the current line that fileName's table needs into row.
+    // Returns false if the line holds no row (blank line or unknown file)
+    boolean processLine(String fileName, FieldTokenizer line, ImportRow row) {
+        if (line.fieldCount() == 1 && line.isEmpty(0)) {
+            return false;
+        }
         switch (fileName) {
             case "movies.dat": {
                 // movie_id, title, year, rtAllCriticsRating, rtAllCriticsNumReviews
                 // rtTopCriticsRating, rtTopCriticsNumReviews, rtAudienceRating, rtAudienceNumReviews
-                values[0] = split[0];
-                values[1] = split[1];
-                values[2] = split[5];
+                row.setLong(0, line.getLong(0));
+                row.setString(1, line.getString(1));
+                setLongOrNull(row, 2, line, 5);
                 // AllCriticsRating:7, TopRating:12, AudienceRating:17
                 // AllCriticsNumReviews:8, TopNum:13, AudienceNum:18
-                for (int i = 7; i < 18; i+=5) {
-                    // i references ratings, i+1 references number
-                    if (split[i].equals("\\N")) {
-                        split[i] = "0";
-                    }
-                    if (split[i+1].equals("\\N")) {
-                        split[i+1] = "0";
-                    }
-                }
-                values[3] = split[7];
-                values[4] = split[8];
-                values[5] = split[12];
-                values[6] = split[13];
-                values[7] = split[17];
-                values[8] = split[18];
-                return values;
-            }
-            case "movie_genres.dat": {
-                // movie_id, genre
-                return split;
-            }
-            case "movie_directors.dat": {
-                // movie_id, director_name
-                values[0] = split[0];
-                if (split[2].isEmpty()) {
-                    values[1] = "N/A";
+                for (int i = 7, column = 3; i < 18; i += 5, column += 2) {
+                    // i references ratings, i+1 references number; missing values count as 0
+                    row.setDouble(column, line.isNull(i) ? 0 : line.getDouble(i));
+                    row.setLong(column + 1, line.isNull(i + 1) ? 0 : line.getLong(i + 1));
                 }
-                else {
-                    values[1] = split[2];
-                }
-                return values;
-            }
-            case "movie_actors.dat": {
-                // movie_id, actor_name
-                values[0] = split[0];
-                if (split[2].isEmpty()) {
-                    values[1] = "N/A";
-                }
-                else {
-                    values[1] = split[2];
-                }
-                return values;
+                return true;
             }
+            case "movie_genres.dat":
             case "movie_countries.dat": {
-                // movie_id, country
-                return split;
+                // movie_id, genre / movie_id, country
+                row.setLong(0, line.getLong(0));
+                setPooledStringOrNull(row, 1, line, 1);
+                return true;
             }
             case "tags.dat": {
-                // tag_id, value
-                return split;
+                // tag_id, value; every value differs, so there is nothing to pool
+                row.setLong(0, line.getLong(0));
+                setStringOrNull(row, 1, line, 1);
+                return true;
             }
-            case "user_taggedmovies.dat": {
-                // user_id, movie_id, tag_id
-                for (int i = 0; i < 3; i++) {
-                    values[i] = split[i];
+            case "movie_directors.dat":
+            case "movie_actors.dat": {
+                // movie_id, director_name / movie_id, actor_name
+                row.setLong(0, line.getLong(0));
+                if (line.isEmpty(2)) {
+                    row.setString(1, "N/A");
+                }
+                else {
+                    // A director or actor has a line per movie
+                    setPooledStringOrNull(row, 1, line, 2);
                 }
-                return values;
+                return true;
             }
+            case "user_taggedmovies.dat":
             case "user_taggedmovies-timestamps.dat": {
-                // user_id, movie_id, tag_id, date
+                // user_id, movie_id, tag_id
                 for (int i = 0; i < 3; i++) {
-                    values[i] = split[i];
+                    row.setLong(i, line.getLong(i));
                 }
-                return values;
+                return true;
             }
             case "user_ratedmovies.dat": {
                 // user_id, movie_id, rating, date
-                for (int i = 0; i < 3; i++) {
-                    values[i] = split[i];
-                }
-                String date = split[4] + "/" + split[3] + "/" + split[5];
-                values[3] = date;
-                return values;
+                row.setLong(0, line.getLong(0));
+                row.setLong(1, line.getLong(1));
+                row.setDouble(2, line.getDouble(2));
+                // date_day:3, date_month:4, date_year:5 -> MM/DD/YYYY
+                row.setString(3, line.getInt(4) + "/" + line.getInt(3) + "/" + line.getInt(5));
+                return true;
             }
             case "user_ratedmovies-timestamps.dat": {
                 // user_id, movie_id, rating, date
-                for (int i = 0; i < 3; i++) {
-                    values[i] = split[i];
-                }
-                Date date = new Date(Long.parseLong(split[3]));
-                values[3] = sdf.format(date);
-                return values;
+                row.setLong(0, line.getLong(0));
+                row.setLong(1, line.getLong(1));
+                row.setDouble(2, line.getDouble(2));
+                Date date = new Date(line.getLong(3));
+                row.setString(3, sdf.get().format(date));
+                return true;
             }
         }
-        return null;
+        return false;
+    }
+
+    private void setLongOrNull(ImportRow row, int column, FieldTokenizer line, int field) {
+        if (line.isNull(field) || line.isEmpty(field)) {
+            row.setNull(column);
+        }
+        else {
+            row.setLong(column, line.getLong(field));
+        }
+    }
+
+    private void setStringOrNull(ImportRow row, int column, FieldTokenizer line, int field) {
+        if (line.isNull(field)) {
+            row.setNull(column);
+        }
+        else {
+            row.setString(column, line.getString(field));
+        }
+    }
+
+    // setStringOrNull for fields of repeated values (see FieldTokenizer.getPooledString)
+    private void setPooledStringOrNull(ImportRow row, int column, FieldTokenizer line, int field) {
+        if (line.isNull(field)) {
+            row.setNull(column);
+        }
+        else {
+            row.setString(column, line.getPooledString(field));
+        }
     }
 
     private String generateInsertSQL(String table, int numColumns) {
@@ -201,15 +759,83 @@ public class Populate {
         }
         if (table.startsWith("user_rated")) {
             insert = insert.substring(0, insert.length() - 1); // Remove last ?
-            insert += "TO_DATE(?, 'MM/DD/YYYY')";
+            insert += dialect.toDate("?");
         }
         return insert + ")";
     }
 
+    // Table name is file name without .dat extension, nor the "-timestamps" of the variants
+    private static String tableOf(String filename) {
+        String table = filename.replace(".dat", "");
+        if (table.contains("-")) {
+            table = table.substring(0, table.indexOf("-"));
+        }
+        return table;
+    }
+
     private void deleteTable(Connection con, String table) throws SQLException {
-        String delete = "DELETE FROM " + table;
-        Statement stmt = con.createStatement();
-        stmt.execute(delete);
+        deleteReferencingTables(con, table);
+        String delete = dialect.deleteAll(table);
+        try (Statement stmt = con.createStatement()) {
+            stmt.execute(delete);
+        }
+    }
+
+    /**
+     * Empties the tables whose foreign keys reference table, which would otherwise prevent the
+     * delete, and drops their import_files entries. Only tables this run reloads as well (their
+     * children are imported after the parents): if another one has rows, nothing is deleted and
+     * the import of table fails, naming the files to add. Committed at once, so the parent and
+     * its children may be reloaded concurrently
+     */
+    private void deleteReferencingTables(Connection con, String table) throws SQLException {
+        TreeSet<String> children = new TreeSet<>();
+        try (ResultSet rs = con.getMetaData().getExportedKeys(null, null, table.toUpperCase())) {
+            while (rs.next()) {
+                String child = rs.getString("FKTABLE_NAME").toLowerCase();
+                if (!child.equals(table)) {
+                    children.add(child);
+                }
+            }
+        }
+        // The files that reload each child table not reloaded by this run, e.g.
+        // "user_ratedmovies-timestamps.dat or user_ratedmovies.dat"
+        ArrayList<String> missingFiles = new ArrayList<>();
+        for (String child : children) {
+            if (!runTables.contains(child) && hasRows(con, child)) {
+                TreeSet<String> files = new TreeSet<>();
+                for (String filename : encodings.keySet()) {
+                    if (tableOf(filename).equals(child)) {
+                        files.add(filename);
+                    }
+                }
+                missingFiles.add(files.isEmpty() ? child : String.join(" or ", files));
+            }
+        }
+        if (!missingFiles.isEmpty()) {
+            throw new SQLException("Cannot reload " + table + ", the rows of other tables reference it: import it"
+                    + " along with " + String.join(", ", missingFiles)
+                    + ", or with -Dpopulate.reload=truncate, which keeps them");
+        }
+        for (String child : children) {
+            if (!runTables.contains(child)) {
+                continue; // No rows
+            }
+            try (Statement stmt = con.createStatement()) {
+                stmt.executeUpdate(dialect.deleteAll(child));
+            }
+            if (logImports) {
+                ImportLog.forget(con, child);
+            }
+            con.commit();
+        }
+    }
+
+    private static boolean hasRows(Connection con, String table) throws SQLException {
+        try (Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return rs.next() && rs.getLong(1) > 0;
+        }
     }
 
     private ArrayList<Integer> getColumnTypes(DatabaseMetaData dbmd, String tableName) throws SQLException{
@@ -224,8 +850,8 @@ public class Populate {
         return columnTypes;
     }
 
-    private void buildEncodingsMap() {
-        encodings = new HashMap<>();
+    private static HashMap<String, Charset> buildEncodingsMap() {
+        HashMap<String, Charset> encodings = new HashMap<>();
         encodings.put("movie_actors.dat", StandardCharsets.ISO_8859_1);
         encodings.put("movie_countries.dat", StandardCharsets.US_ASCII);
         encodings.put("movie_directors.dat", StandardCharsets.ISO_8859_1);
@@ -236,32 +862,23 @@ public class Populate {
         encodings.put("user_ratedmovies.dat", StandardCharsets.US_ASCII);
         encodings.put("user_taggedmovies-timestamps.dat", StandardCharsets.US_ASCII);
         encodings.put("user_taggedmovies.dat", StandardCharsets.US_ASCII);
+        return encodings;
     }
 
-    private Connection openConnection() throws SQLException, ClassNotFoundException {
-        DriverManager.registerDriver(new oracle.jdbc.OracleDriver());
-        String host, port, dbName, userName, password;
-        try (BufferedReader br = new BufferedReader(new FileReader(new File("src/connection.txt")))) {
-            host = br.readLine().split(":")[1].trim();
-            port = br.readLine().split(":")[1].trim();
-            dbName = br.readLine().split(":")[1].trim();
-            userName = br.readLine().split(":")[1].trim();
-            password = br.readLine().split(":")[1].trim();
-        }
-        catch (IOException e) {
-            System.out.println("Connection.txt not found, using values defined in Populate.java");
-            host = "Johnny";
-            port = "1521";
-            dbName = "orcl";
-            userName = "scott";
-            password = "tiger";
-        }
-        String dbURL = "jdbc:oracle:thin:@" + host + ":" + port + ":" + dbName;
-        System.out.println("Connecting to: " + dbURL);
-        return DriverManager.getConnection(dbURL, userName, password);
+    // Charset of a data file; package-private for DatasetSnapshot, which parses them the same way
+    Charset getEncoding(String fileName) {
+        return encodings.get(fileName);
+    }
+
+    // Borrows a connection of the pool; closing it returns it
+    private Connection openConnection() throws SQLException {
+        return connections.getConnection();
     }
 
     private void closeConnection(Connection con) {
+        if (con == null) {
+            return;
+        }
         try {
             con.close();
         }
@@ -280,6 +897,7 @@ public class Populate {
             args = new String[]
             {
                 "movies.dat",
+                "tags.dat",
                 "movie_actors.dat",
                 "movie_countries.dat",
                 "movie_directors.dat",
@@ -0,0 +1,137 @@
+import java.sql.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Runs sample hw3 searches with the base query and the join-free query and prints, for each,
+ * the rows joined before grouping, the rows returned and the median run time.
+ * Run it after Populate has loaded the dataset. Options:
+ * -Dbenchmark.runs=5 timed runs per query (after one warm-up run)
+ */
+public class QueryBenchmark {
+
+    private int runs = Integer.getInteger("benchmark.runs", 5);
+
+    public static void main(String[] args) {
+        QueryBenchmark benchmark = new QueryBenchmark();
+        benchmark.run();
+    }
+
+    public void run() {
+        ConnectionPool pool = null;
+        Connection con = null;
+        try {
+            pool = ConnectionPool.fromConnectionFile("QueryBenchmark", 1);
+            con = pool.getConnection();
+            System.out.printf("%-24s %-10s %12s %10s %10s%n", "SEARCH", "QUERY", "JOINED ROWS", "ROWS", "MEDIAN MS");
+            for (Map.Entry<String, SearchCriteria> sample : samples().entrySet()) {
+                benchmark(con, sample.getKey(), sample.getValue(), false);
+                benchmark(con, sample.getKey(), sample.getValue(), true);
+            }
+        }
+        catch (SQLException e) {
+            while (e != null) {
+                System.out.println("Message: " + e.getMessage());
+                System.out.println("SQLState: " + e.getSQLState());
+                System.out.println("Vendor Error: " + e.getErrorCode());
+                e = e.getNextException();
+            }
+        }
+        catch (ClassNotFoundException e) {
+            System.out.println("Could not load the driver");
+        }
+        finally {
+            closeConnection(con);
+            if (pool != null) {
+                pool.close();
+            }
+        }
+    }
+
+    private void benchmark(Connection con, String name, SearchCriteria criteria, boolean joinFree)
+            throws SQLException {
+        QueryBuilder builder = new QueryBuilder(criteria, joinFree, SqlDialect.of(con));
+        SqlQuery count = builder.buildJoinedRowCount();
+        long joinedRows;
+        try (PreparedStatement ps = con.prepareStatement(count.getSql())) {
+            count.bind(ps);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                joinedRows = rs.getLong(1);
+            }
+        }
+
+        SqlQuery query = builder.build();
+        long[] times = new long[runs];
+        int rows = 0;
+        try (PreparedStatement ps = con.prepareStatement(query.getSql())) {
+            query.bind(ps);
+            ps.setFetchSize(500);
+            // Warm-up run, so parsing and a cold buffer cache are not timed
+            rows = readAll(ps);
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                rows = readAll(ps);
+                times[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(times);
+        double median = runs == 0 ? 0 : times[runs / 2] / 1e6;
+        System.out.printf("%-24s %-10s %12d %10d %10.1f%n", name, joinFree ? "join-free" : "base",
+                joinedRows, rows, median);
+    }
+
+    // Executes the query and reads every column of every row, like the results table does
+    private static int readAll(PreparedStatement ps) throws SQLException {
+        int rows = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+            int columns = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    rs.getObject(i);
+                }
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    // Searches covering the cases the join-free query targets: many matching movies with many tags
+    private static Map<String, SearchCriteria> samples() {
+        Map<String, SearchCriteria> samples = new LinkedHashMap<>();
+
+        samples.put("all movies", new SearchCriteria());
+
+        SearchCriteria genre = new SearchCriteria();
+        genre.genres.add("Drama");
+        samples.put("genre Drama", genre);
+
+        SearchCriteria genres = new SearchCriteria();
+        genres.genres.addAll(Arrays.asList("Action", "Adventure", "Sci-Fi"));
+        genres.allGenres = true;
+        samples.put("ALL of 3 genres", genres);
+
+        SearchCriteria years = new SearchCriteria();
+        years.fromYear = "1990";
+        years.toYear = "1999";
+        samples.put("years 1990-1999", years);
+
+        SearchCriteria tags = new SearchCriteria();
+        tags.tags = "classic,funny";
+        samples.put("ANY tag classic,funny", tags);
+        return samples;
+    }
+
+    private void closeConnection(Connection con) {
+        if (con == null) {
+            return;
+        }
+        try {
+            con.close();
+        }
+        catch (SQLException e) {
+            System.err.println("Cannot close connection: " + e.getMessage());
+        }
+    }
+}
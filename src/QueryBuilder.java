@@ -0,0 +1,464 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * Builds the hw3 search query from a SearchCriteria.
+ * Values entered by the user are never pasted into the SQL: every one becomes a '?' placeholder
+ * with its value added, typed, to the parameter list. Searches of the same shape therefore
+ * produce the same SQL text and reuse the statement parsed by the database.
+ * The SQL is Oracle's unless another SqlDialect is given.
+ * The search runs on the movies table and its neighbours, or on movie_summary (summary mode).
+ */
+public class QueryBuilder {
+
+    // Our query should always return the following columns:
+    // 1. Title: movies.title
+    // 2. Year: movies.year
+    // 3. Country: movie_countries.country
+    // 4. CriticsRating: (movies.rtAllCriticsRating + movies.rtTopCriticsRating) / 2
+    // 5. NumCriticsReview: movies.rtAllCriticsNumReviews + movies.rtTopCriticsNumReviews
+    // 6. AudienceRating: movies.rtAudienceRating
+    // 7. NumAudienceReviews: movies.rtAudienceNumReviews
+    // 8. Genre: movie_genres.genre
+    // 9. Users' tags: tags.value where tags.id = user_taggedmovies.id
+    // Our select clause never changes! (but for the aggregate, which is the dialect's)
+    private static String select(SqlDialect dialect) {
+        return "SELECT \ntitle, year, country, critics_Rating, critics_NumReviews, " +
+            "audience_Rating, audience_NumReviews,\n" +
+            dialect.listagg("case when g = 1 THEN genre END", "genre") + " as genres,\n" +
+            dialect.listagg("case when t = 1 THEN tag END", "tag") + " as tags\n" +
+            "FROM\n(\n\tSELECT\n\tM.movie_id as id, M.title as title,\n\tMG.genre as genre,\n\tT.value as tag,\n" +
+            "\tM.year as year,\n\tMC.country as country,\n" +
+            "\tROUND((M.rtAllCriticsRating + M.rtTopCriticsRating)/2, 1) as critics_Rating,\n" +
+            "\tM.rtAllCriticsNumReviews + M.rtTopCriticsNumReviews as critics_NumReviews,\n" +
+            "\tM.rtAudienceRating as audience_Rating,\n\tM.rtAudienceNumReviews as audience_NumReviews,\n" +
+            "\trow_number() over (partition by M.movie_id, MG.genre order by MG.genre) as g,\n" +
+            "\trow_number() over (partition by M.movie_id, T.value order by T.value) as t";
+    }
+
+    // Our base FROM clause
+    public static final String FROM = "\n\tFROM\n" +
+            "\tmovies M left join movie_genres MG on M.movie_id = MG.movie_id\n" +
+            "\tleft join movie_genres MG1 on M.movie_id = MG1.movie_id\n" +
+            "\tleft join user_taggedmovies UTM on M.movie_id = UTM.movie_id\n" +
+            "\tleft join movie_countries MC on M.movie_id = MC.movie_id\n" +
+            "\tleft join tags T on UTM.tag_id = T.tag_id";
+    // Our WHERE clause does change, but this variable never does
+    public static final String GROUP = "\n)\nGROUP BY id, title, year, country, critics_Rating, " +
+            "critics_NumReviews, audience_Rating, audience_NumReviews";
+
+    // Joins the WHERE sections refer to. The base FROM always has them; the join-free mode
+    // adds only the ones its sections use
+    private static final String JOIN_GENRES = "\n\tleft join movie_genres MG1 on M.movie_id = MG1.movie_id";
+    private static final String JOIN_TAGS = "\n\tleft join user_taggedmovies UTM on M.movie_id = UTM.movie_id" +
+            "\n\tleft join tags T on UTM.tag_id = T.tag_id";
+    private static final String JOIN_COUNTRIES = "\n\tleft join movie_countries MC on M.movie_id = MC.movie_id";
+
+    // Join-free mode: the sections only select the matching movie ids (one row each), then the
+    // genres and tags of each matching movie are aggregated by their own correlated subquery.
+    // The base query instead joins genres x tags x genres rows per movie before grouping them
+    private static String matchesSelect(SqlDialect dialect) {
+        return "SELECT\n" +
+            "M.title as title, M.year as year, MC.country as country,\n" +
+            "ROUND((M.rtAllCriticsRating + M.rtTopCriticsRating)/2, 1) as critics_Rating,\n" +
+            "M.rtAllCriticsNumReviews + M.rtTopCriticsNumReviews as critics_NumReviews,\n" +
+            "M.rtAudienceRating as audience_Rating, M.rtAudienceNumReviews as audience_NumReviews,\n" +
+            "(\n\tSELECT " + dialect.listagg("G.genre", "G.genre") + "\n" +
+            "\tFROM movie_genres G WHERE G.movie_id = M.movie_id\n) as genres,\n" +
+            // Each tag once, however many users used it on the movie
+            "(\n\tSELECT " + dialect.listagg("TG.value", "TG.value") + "\n" +
+            "\tFROM tags TG WHERE TG.tag_id in\n" +
+            "\t\t(SELECT UTG.tag_id FROM user_taggedmovies UTG WHERE UTG.movie_id = M.movie_id)\n) as tags\n" +
+            "FROM\n(\n\tSELECT DISTINCT M.movie_id";
+    }
+
+    public static final String MATCHES_FROM = "\n\tFROM\n\tmovies M";
+    public static final String MATCHES_JOIN = "\n) X join movies M on X.movie_id = M.movie_id\n" +
+            "left join movie_countries MC on M.movie_id = MC.movie_id";
+
+    // Summary mode: the same columns, precomputed in movie_summary (see MovieSummary). The sections
+    // filter movie_summary as M, which has the movie_id and year of movies; only when they join
+    // other tables are the matching ids made distinct first, as in the join-free query
+    private static final String SUMMARY_COLUMNS = "title, year, country, critics_rating,\n" +
+            "critics_num_reviews as critics_NumReviews, audience_rating,\n" +
+            "audience_num_reviews as audience_NumReviews, genres, tags";
+    public static final String SUMMARY_FROM = "\n\tFROM\n\t" + MovieSummary.TABLE + " M";
+    public static final String SUMMARY_JOIN = "\n) X join " + MovieSummary.TABLE + " S on X.movie_id = S.movie_id";
+
+    // The averages the Movie rating and count fields compare with, also stored in movie_summary.
+    // The columns are only in movies, so they are not qualified: an index on the same expression
+    // (see IndexAdvisor) then matches the query text
+    static final String AVERAGE_RATING = "ROUND((rtAllCriticsRating + rtTopCriticsRating + rtAudienceRating) / 3, 1)";
+    static final String AVERAGE_REVIEWS =
+            "ROUND((rtAllCriticsNumReviews + rtTopCriticsNumReviews + rtAudienceNumReviews) / 3, 1)";
+
+    // Comparison operators that may appear in the SQL text
+    private static final List<String> OPERATORS = Arrays.asList("=", "<", ">", "<=", ">=");
+
+    private final SearchCriteria criteria;
+    private final boolean joinFree;
+    private final boolean summary;
+    private final SqlDialect dialect;
+    // FROM clause, extended with the joins the sections need
+    private final StringBuilder from;
+    // Whether the user ratings section joins user_ratedmovies
+    private boolean userRatings;
+    // Values bound to the placeholders, in order of appearance
+    private final ArrayList<Object> params = new ArrayList<>();
+
+    public QueryBuilder(SearchCriteria criteria) {
+        this(criteria, false);
+    }
+
+    /**
+     * joinFree selects the join-free query: the matching movies are resolved first and their
+     * genres and tags aggregated separately, instead of de-duplicating one flat join
+     */
+    public QueryBuilder(SearchCriteria criteria, boolean joinFree) {
+        this(criteria, joinFree, SqlDialect.ORACLE);
+    }
+
+    // The query in the SQL of the given dialect
+    public QueryBuilder(SearchCriteria criteria, boolean joinFree, SqlDialect dialect) {
+        this(criteria, joinFree, dialect, false);
+    }
+
+    /**
+     * summary selects the query on movie_summary, which Populate keeps up to date (see
+     * MovieSummary): nothing is computed or aggregated per search, and joinFree does not apply
+     */
+    public QueryBuilder(SearchCriteria criteria, boolean joinFree, SqlDialect dialect, boolean summary) {
+        this.criteria = criteria;
+        this.joinFree = joinFree || summary;
+        this.summary = summary;
+        this.dialect = dialect;
+        if (summary) {
+            this.from = new StringBuilder(SUMMARY_FROM);
+        }
+        else this.from = new StringBuilder(joinFree ? MATCHES_FROM : FROM);
+    }
+
+    /**
+     * Builds the query, once per builder.
+     * Throws IllegalArgumentException if a numeric field does not hold a number
+     */
+    public SqlQuery build() {
+        String where = buildWhere();
+        if (summary) {
+            if (from.length() == SUMMARY_FROM.length() && !userRatings) {
+                // One row per movie already
+                return new SqlQuery("SELECT\n" + SUMMARY_COLUMNS + SUMMARY_FROM + where, params);
+            }
+            // Only S has these columns, X has just movie_id
+            return new SqlQuery("SELECT\n" + SUMMARY_COLUMNS + "\nFROM\n(\n\tSELECT DISTINCT M.movie_id"
+                    + fromClause() + where + SUMMARY_JOIN, params);
+        }
+        if (joinFree) {
+            return new SqlQuery(matchesSelect(dialect) + fromClause() + where + MATCHES_JOIN, params);
+        }
+        return new SqlQuery(select(dialect) + fromClause() + where + GROUP, params);
+    }
+
+    /**
+     * Builds a query counting the rows the search joins before they are grouped (base query)
+     * or reduced to distinct movie ids (join-free query), to compare the two.
+     * Like build(), call it once per builder
+     */
+    public SqlQuery buildJoinedRowCount() {
+        String where = buildWhere();
+        return new SqlQuery("SELECT COUNT(*) FROM\n(\n\tSELECT M.movie_id" + fromClause() + where + "\n)", params);
+    }
+
+    private String fromClause() {
+        if (userRatings) {
+            return from + ",\n\tuser_ratedmovies URM";
+        }
+        return from.toString();
+    }
+
+    // Returns the WHERE clause, or "" if the user did not specify any section
+    private String buildWhere() {
+        String op;
+        if (criteria.and) {
+            op = " AND ";
+        }
+        else op = " OR ";
+        // Sections add their parameters in this order, which is also their order in the SQL
+        String[] sections = {
+                processGenres(),
+                processCountries(),
+                processDirector(),
+                processActors(),
+                processMovieRatings(),
+                processMovieCounts(),
+                processMovieYear(),
+                processUserRatings(),
+                processTags()
+        };
+        boolean empty = true;
+        StringJoiner sj = new StringJoiner(op, "\n\tWHERE", "");
+        for (int i = 0; i < sections.length; i++) {
+            // processXxx() returns null if the user did not specify section Xxx
+            if (sections[i] != null) {
+                sj.add("\n" + sections[i]);
+                empty = false;
+            }
+        }
+        if (empty) {
+            return "";
+        }
+        return sj.toString();
+    }
+
+    private String processGenres() {
+        if (criteria.genres.isEmpty()) {
+            return null;
+        }
+        if (criteria.allGenres && criteria.genres.size() > 1) {
+            // Match ALL of the genres selected
+            StringJoiner sj = new StringJoiner("\n\t\tINTERSECT\n", "", ")");
+            String s = "\t\tSELECT movie_id\n\t\tFROM movie_genres\n\t\tWHERE genre = ";
+            for (String genre : criteria.genres) {
+                sj.add(s + bind(genre));
+            }
+            return "\t(M.movie_id in\n\t\t(\n" + sj.toString() + ")";
+        }
+        else {
+            // Match ANY of the genres selected
+            require(JOIN_GENRES);
+            return "\t(MG1.genre in " + bindList(criteria.genres) + ")";
+        }
+    }
+
+    // Assumption: select movies that matches ANY country chosen since
+    // each movie is associated with at most one country
+    private String processCountries() {
+        if (criteria.countries.isEmpty()) {
+            return null;
+        }
+        if (summary) {
+            return "\t(" + dialect.anyOf("M.country", bindList(criteria.countries)) + ")";
+        }
+        require(JOIN_COUNTRIES);
+        return "\t(" + dialect.anyOf("MC.country", bindList(criteria.countries)) + ")";
+    }
+
+    private String processDirector() {
+        String director = criteria.director;
+        if (SearchCriteria.isEmpty(director)) {
+            return null;
+        }
+        else {
+            from.append("\n\tleft join movie_directors MD on M.movie_id = MD.movie_id");
+            return "\t(MD.director_name = " + bind(director) + ")";
+        }
+    }
+
+    // Assumption: select movies that matches ALL actors/actresses chosen
+    private String processActors() {
+        if (criteria.actors.isEmpty()) {
+            return null;
+        }
+        from.append("\n\tleft join movie_actors MA on M.movie_id = MA.movie_id");
+        if (criteria.allActors && criteria.actors.size() > 1) {
+            // Match ALL of the actors selected
+            StringJoiner sj = new StringJoiner("\n\t\tINTERSECT\n", "", ")");
+            String s = "\t\tSELECT movie_id\n\t\tFROM movie_actors\n\t\tWHERE actor_name = ";
+            for (String actor : criteria.actors) {
+                sj.add(s + bind(actor));
+            }
+            return "\t(M.movie_id in\n\t\t(\n" + sj.toString() + ")";
+        }
+        else {
+            // Match ANY of the actors selected
+            return "\t(MA.actor_name in " + bindList(criteria.actors) + ")";
+        }
+    }
+
+    // Assumption: If user does not select comparison operator from combo box, use '='
+    private String processMovieRatings() {
+        String rating = criteria.ratingValue;
+        if (SearchCriteria.isEmpty(rating)) {
+            return null;
+        }
+        String average = summary ? "M.avg_rating" : AVERAGE_RATING;
+        return "\t(" + average + " " + operator(criteria.ratingOp) + " "
+                + bind(parseDouble(rating, "Movie rating")) + ")";
+    }
+
+    // Assumption: If user does not select comparison operator from combo box, use '='
+    private String processMovieCounts() {
+        String count = criteria.countValue;
+        if (SearchCriteria.isEmpty(count)) {
+            return null;
+        }
+        String average = summary ? "M.avg_num_reviews" : AVERAGE_REVIEWS;
+        return "\t(" + average + " " + operator(criteria.countOp) + " "
+                + bind(parseDouble(count, "Movie rating count")) + ")";
+    }
+
+    // Assumption: From and to year values inputted are INCLUSIVE
+    private String processMovieYear() {
+        StringJoiner sj = new StringJoiner(" AND ", "\t(", ")");
+        String from = criteria.fromYear;
+        String to = criteria.toYear;
+        if (SearchCriteria.isEmpty(from) && SearchCriteria.isEmpty(to)) {
+            return null;
+        }
+        if (!SearchCriteria.isEmpty(from)) {
+            sj.add("M.year >= " + bind(parseInt(from, "From year")));
+        }
+        if (!SearchCriteria.isEmpty(to)) {
+            sj.add("M.year <= " + bind(parseInt(to, "To year")));
+        }
+        return sj.toString();
+    }
+
+    private String processUserID() {
+        String user = criteria.userId;
+        if (SearchCriteria.isEmpty(user)) {
+            return null;
+        }
+        return "\t(URM.user_id = " + bind(parseInt(user, "User ID")) + ")";
+    }
+
+    private String processFromDate() {
+        String from = criteria.fromDate;
+        if (SearchCriteria.isEmpty(from)) {
+            return null;
+        }
+        return "(URM.ts > " + dialect.toDate(bind(from)) + ")";
+    }
+
+    private String processToDate() {
+        String to = criteria.toDate;
+        if (SearchCriteria.isEmpty(to)) {
+            return null;
+        }
+        return "(URM.ts < " + dialect.toDate(bind(to)) + ")";
+    }
+
+    private String processDate() {
+        String from = processFromDate();
+        String to = processToDate();
+        String s = "\t(M.movie_id in\n\t\t(\n\t\tSELECT DISTINCT movie_id\n\t\tFROM user_ratedmovies" +
+                "\n\t\tWHERE ";
+        if (from == null && to == null) {
+            return null;
+        }
+        if (from == null) {
+            return s + to + "\n\t\t))";
+        }
+        if (to == null) {
+            return s + from + "\n\t\t))";
+        }
+        return s + from + " AND " + to + "\n\t\t))";
+    }
+
+    private String processUserRatingValue() {
+        String rating = criteria.userRatingValue;
+        if (SearchCriteria.isEmpty(rating)) {
+            return null;
+        }
+        return "\t(URM.rating " + operator(criteria.userRatingOp) + " "
+                + bind(parseDouble(rating, "User rating")) + ")";
+    }
+
+    private String processTags() {
+        String tags = criteria.tags;
+        if (SearchCriteria.isEmpty(tags)) {
+            return null;
+        }
+        String[] values = tags.split(",");
+        String s = "\t\tSELECT DISTINCT UTM.movie_id\n\t\tFROM user_taggedmovies UTM, tags T\n" +
+                "\t\tWHERE UTM.tag_id = T.tag_id AND T.value = ";
+        if (criteria.allTags && values.length > 1) {
+            StringJoiner sj = new StringJoiner("\n\t\tINTERSECT\n","",")");
+            for (String tag : values) {
+                // SELECT ... FROM ... WHERE ... AND T.value = ?
+                sj.add(s + bind(tag));
+            }
+            return "\t(M.movie_id in\n\t\t(\n" + sj.toString() + ")";
+        }
+        else {
+            require(JOIN_TAGS);
+            return "\t(T.value in " + bindList(Arrays.asList(values)) + ")";
+        }
+    }
+
+    private String processUserRatings() {
+        boolean empty = true;
+        String[] fields =
+                {
+                        processUserID(),
+                        processDate(),
+                        processUserRatingValue()
+                };
+        String op;
+        if (criteria.allUserFields) {
+            op = " AND\n";
+        }
+        else op = " OR\n";
+        StringJoiner sj = new StringJoiner(op);
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                empty = false;
+                sj.add(fields[i]);
+            }
+        }
+        if (empty) {
+            return null;
+        }
+        userRatings = true;
+        return "\t(URM.movie_id = M.movie_id) AND\n" + sj.toString();
+    }
+
+    // Adds a join the base FROM already has to the join-free FROM
+    private void require(String join) {
+        if (joinFree && from.indexOf(join) < 0) {
+            from.append(join);
+        }
+    }
+
+    // Adds value to the parameters and returns its placeholder
+    private String bind(Object value) {
+        params.add(value);
+        return "?";
+    }
+
+    // Adds the values to the parameters and returns "(?,?,...)"
+    private String bindList(Iterable<String> values) {
+        StringJoiner sj = new StringJoiner(",", "(", ")");
+        for (String value : values) {
+            sj.add(bind(value));
+        }
+        return sj.toString();
+    }
+
+    static String operator(String op) {
+        if (op == null || !OPERATORS.contains(op)) {
+            return "=";
+        }
+        return op;
+    }
+
+    static int parseInt(String value, String field) {
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(field + " must be a whole number: " + value);
+        }
+    }
+
+    static double parseDouble(String value, String field) {
+        try {
+            return Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(field + " must be a number: " + value);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Complete results of recent searches, keyed by their query (SQL text and bound values), so
+ * running the same search again does not go to the database.
+ * Bounded by number of entries (least recently used first out), age and rows per result;
+ * everything is dropped when the data version (the last load time in import_files) changes.
+ * Safe to use from several threads.
+ */
+public class ResultCache {
+
+    // A cached result
+    public static class Entry {
+        public final String[] columns;
+        public final List<Object[]> rows;
+        private final long created;
+
+        Entry(String[] columns, List<Object[]> rows, long created) {
+            this.columns = columns;
+            this.rows = rows;
+            this.created = created;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final int maxRows;
+    private final LinkedHashMap<String, Entry> entries;
+    private Object version;
+    private int hits;
+    private int misses;
+    private int invalidations;
+
+    public ResultCache(int maxEntries, long ttlMillis, int maxRows) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.maxRows = maxRows;
+        // Access ordered, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResultCache.Entry> eldest) {
+                return size() > ResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    // The cache key of a query: its SQL and its values with their types
+    public static String key(SqlQuery query) {
+        StringBuilder sb = new StringBuilder(query.getSql());
+        for (Object param : query.getParams()) {
+            sb.append('\0').append(param == null ? "null" : param.getClass().getSimpleName()).append(':')
+                    .append(param);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Drops every entry if the data version differs from the one the entries were cached under
+     */
+    public synchronized void validate(Object version) {
+        if (!Objects.equals(version, this.version)) {
+            if (!entries.isEmpty()) {
+                invalidations++;
+            }
+            entries.clear();
+            this.version = version;
+        }
+    }
+
+    // Returns the cached result, or null if there is none or it is too old
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.created > ttlMillis) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+        }
+        else hits++;
+        return entry;
+    }
+
+    // Caches a complete result, unless it has more than the maximum number of rows
+    public synchronized void put(String key, String[] columns, List<Object[]> rows) {
+        if (maxEntries <= 0 || rows.size() > maxRows) {
+            return;
+        }
+        shareRepeatedStrings(rows);
+        entries.put(key, new Entry(columns, rows, System.currentTimeMillis()));
+    }
+
+    // The rows of a result repeat the same genres, countries and directors, each read from the
+    // database as a String of its own: keep one of each while the result is cached
+    private static void shareRepeatedStrings(List<Object[]> rows) {
+        HashMap<String, String> distinct = new HashMap<>();
+        for (Object[] row : rows) {
+            for (int i = 0; i < row.length; i++) {
+                if (row[i] instanceof String) {
+                    String shared = distinct.putIfAbsent((String) row[i], (String) row[i]);
+                    if (shared != null) {
+                        row[i] = shared;
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized int getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Result cache: %d/%d entries, %d hits, %d misses, %d invalidations",
+                entries.size(), maxEntries, hits, misses, invalidations);
+    }
+}
@@ -0,0 +1,238 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Rows of a result stored column by column, each column in an array of its own type.
+ * A row is read with the getter matching the column type (getInt for the year, getDouble for
+ * the ratings, getString for the LISTAGG lists, which reads a CLOB in the same fetch instead of
+ * returning a locator), so numbers are neither boxed nor turned into BigDecimals until a cell
+ * is shown. The column types are worked out once per result set, not once per row.
+ */
+public class ResultColumns {
+
+    // How a column is read and stored. NUMBER is a decimal of unknown scale (Oracle NUMBER),
+    // stored as a double and shown without a fraction when whole, as its BigDecimal would be
+    public enum Kind {INT, LONG, DOUBLE, NUMBER, STRING, OBJECT}
+
+    private final Kind[] kinds;
+    // One array per column: int[], long[], double[], String[] or Object[] depending on its kind
+    private final Object[] values;
+    // Null values of the primitive columns
+    private final BitSet[] nulls;
+    private int size;
+    private int capacity;
+
+    public ResultColumns(Kind[] kinds, int capacity) {
+        this.kinds = kinds;
+        this.values = new Object[kinds.length];
+        this.nulls = new BitSet[kinds.length];
+        this.capacity = capacity = Math.max(1, capacity);
+        for (int c = 0; c < kinds.length; c++) {
+            values[c] = newArray(kinds[c], capacity);
+            nulls[c] = new BitSet();
+        }
+    }
+
+    // Columns holding the values as given, for rows that were not read from a result set
+    public static Kind[] objects(int columns) {
+        Kind[] kinds = new Kind[columns];
+        Arrays.fill(kinds, Kind.OBJECT);
+        return kinds;
+    }
+
+    // The kind of each column of the result set
+    public static Kind[] kinds(ResultSetMetaData rsmd) throws SQLException {
+        Kind[] kinds = new Kind[rsmd.getColumnCount()];
+        for (int c = 0; c < kinds.length; c++) {
+            kinds[c] = kind(rsmd.getColumnType(c + 1), rsmd.getPrecision(c + 1), rsmd.getScale(c + 1));
+        }
+        return kinds;
+    }
+
+    private static Kind kind(int type, int precision, int scale) {
+        switch (type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return Kind.INT;
+            case Types.BIGINT:
+                return Kind.LONG;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.FLOAT: // A NUMBER in Oracle
+                // NUMBER(p) columns such as NUMBER(4) for a year; computed values have no precision
+                if (scale == 0 && precision > 0 && precision <= 9) {
+                    return Kind.INT;
+                }
+                if (scale == 0 && precision > 0 && precision <= 18) {
+                    return Kind.LONG;
+                }
+                return Kind.NUMBER;
+            case Types.REAL:
+            case Types.DOUBLE:
+                return Kind.DOUBLE;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.CLOB:
+            case Types.NCLOB:
+                return Kind.STRING;
+            default:
+                return Kind.OBJECT;
+        }
+    }
+
+    // Appends the current row of the result set
+    public void read(ResultSet rs) throws SQLException {
+        ensureCapacity(size + 1);
+        for (int c = 0; c < kinds.length; c++) {
+            switch (kinds[c]) {
+                case INT:
+                    ((int[]) values[c])[size] = rs.getInt(c + 1);
+                    break;
+                case LONG:
+                    ((long[]) values[c])[size] = rs.getLong(c + 1);
+                    break;
+                case DOUBLE:
+                case NUMBER:
+                    ((double[]) values[c])[size] = rs.getDouble(c + 1);
+                    break;
+                case STRING:
+                    ((String[]) values[c])[size] = rs.getString(c + 1);
+                    break;
+                default:
+                    ((Object[]) values[c])[size] = rs.getObject(c + 1);
+            }
+            if (rs.wasNull()) {
+                nulls[c].set(size);
+            }
+        }
+        size++;
+    }
+
+    // Appends a row given as values; only for OBJECT columns
+    public void add(Object[] row) {
+        ensureCapacity(size + 1);
+        for (int c = 0; c < kinds.length; c++) {
+            ((Object[]) values[c])[size] = row[c];
+        }
+        size++;
+    }
+
+    // Appends every row of other, whose columns must be of the same kinds
+    public void addAll(ResultColumns other) {
+        ensureCapacity(size + other.size);
+        for (int c = 0; c < kinds.length; c++) {
+            System.arraycopy(other.values[c], 0, values[c], size, other.size);
+            BitSet otherNulls = other.nulls[c];
+            for (int i = otherNulls.nextSetBit(0); i >= 0; i = otherNulls.nextSetBit(i + 1)) {
+                nulls[c].set(size + i);
+            }
+        }
+        size += other.size;
+    }
+
+    // Removes every row, keeping the arrays for the next ones
+    public void clear() {
+        for (BitSet columnNulls : nulls) {
+            columnNulls.clear();
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getColumnCount() {
+        return kinds.length;
+    }
+
+    public Kind getKind(int column) {
+        return kinds[column];
+    }
+
+    public int getInt(int row, int column) {
+        return ((int[]) values[column])[row];
+    }
+
+    public long getLong(int row, int column) {
+        return ((long[]) values[column])[row];
+    }
+
+    public double getDouble(int row, int column) {
+        return ((double[]) values[column])[row];
+    }
+
+    public boolean isNull(int row, int column) {
+        return nulls[column].get(row);
+    }
+
+    // The value of a cell, boxed; null if it is NULL
+    public Object get(int row, int column) {
+        if (isNull(row, column)) {
+            return null;
+        }
+        switch (kinds[column]) {
+            case INT:
+                return getInt(row, column);
+            case LONG:
+                return getLong(row, column);
+            case DOUBLE:
+                return getDouble(row, column);
+            case NUMBER: {
+                double value = getDouble(row, column);
+                if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                    return (long) value;
+                }
+                return value;
+            }
+            default:
+                return ((Object[]) values[column])[row];
+        }
+    }
+
+    // A row as values, for code working row by row (the result cache)
+    public Object[] getRow(int row) {
+        Object[] values = new Object[kinds.length];
+        for (int c = 0; c < kinds.length; c++) {
+            values[c] = get(row, c);
+        }
+        return values;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= capacity) {
+            return;
+        }
+        capacity = Math.max(needed, capacity * 2);
+        for (int c = 0; c < kinds.length; c++) {
+            Object grown = newArray(kinds[c], capacity);
+            System.arraycopy(values[c], 0, grown, 0, size);
+            values[c] = grown;
+        }
+    }
+
+    private static Object newArray(Kind kind, int capacity) {
+        switch (kind) {
+            case INT:
+                return new int[capacity];
+            case LONG:
+                return new long[capacity];
+            case DOUBLE:
+            case NUMBER:
+                return new double[capacity];
+            case STRING:
+                return new String[capacity];
+            default:
+                return new Object[capacity];
+        }
+    }
+}
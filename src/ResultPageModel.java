@@ -0,0 +1,235 @@
+import javax.swing.table.AbstractTableModel;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Table model over an open ResultSet that holds only the rows fetched so far.
+ * Rows are read a page at a time with fetchPage (off the event dispatch thread) and added with
+ * addPage (on it), typically when the user scrolls near the last loaded row. The JTable only
+ * renders the visible rows, so showing a large result costs the same as showing a small one.
+ * Rows are kept in ResultColumns, read with the getter of each column's type, and a page is
+ * read into the same buffer every time.
+ * The driver fetches fetchSize rows per round trip, at first what the caller set on the
+ * statement; every page after the first doubles it, up to maxFetchSize, since a user who keeps
+ * scrolling is reading a large result.
+ * Rows computed elsewhere (the in-memory index) can be shown with the same model.
+ * The connection the rows come from, if given, is closed along with the result set, which
+ * returns a pooled connection as soon as the last row is read.
+ * cancel stops a fetchPage running on another thread; that thread then closes the result set,
+ * so the connection is never given back while a fetch still uses it.
+ * The first column is the result number.
+ */
+public class ResultPageModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ResultSet rs;
+    private final Connection con;
+    private final String[] columnNames;
+    private final int pageSize;
+    private final int maxFetchSize;
+    private int fetchSize;
+    private int pagesFetched;
+    private final ResultColumns rows;
+    private final ResultColumns page; // Reused by every fetchPage
+    private volatile boolean exhausted;
+    private volatile boolean complete; // Every row of the result set was read
+    // Guarded by this: whether fetchPage is reading rows, and whether rs and con were closed
+    private boolean fetching;
+    private boolean closed;
+
+    public ResultPageModel(ResultSet rs, int pageSize, int maxFetchSize, Connection con) throws SQLException {
+        this.rs = rs;
+        this.con = con;
+        this.pageSize = Math.max(1, pageSize);
+        // What the caller set on the statement, if the driver reports it
+        this.fetchSize = rs.getFetchSize() > 0 ? rs.getFetchSize() : this.pageSize;
+        this.maxFetchSize = Math.max(fetchSize, maxFetchSize);
+        ResultSetMetaData rsmd = rs.getMetaData();
+        columnNames = new String[rsmd.getColumnCount() + 1];
+        columnNames[0] = "RESULT";
+        for (int i = 1; i < columnNames.length; i++) {
+            columnNames[i] = rsmd.getColumnName(i);
+        }
+        ResultColumns.Kind[] kinds = ResultColumns.kinds(rsmd);
+        this.rows = new ResultColumns(kinds, this.pageSize);
+        this.page = new ResultColumns(kinds, this.pageSize);
+    }
+
+    // All rows are given: there is nothing to fetch
+    public ResultPageModel(String[] columns, List<Object[]> rows) {
+        this.rs = null;
+        this.con = null;
+        this.pageSize = Math.max(1, rows.size());
+        this.maxFetchSize = 0;
+        this.columnNames = new String[columns.length + 1];
+        columnNames[0] = "RESULT";
+        System.arraycopy(columns, 0, columnNames, 1, columns.length);
+        ResultColumns.Kind[] kinds = ResultColumns.objects(columns.length);
+        this.rows = new ResultColumns(kinds, rows.size());
+        for (Object[] row : rows) {
+            this.rows.add(row);
+        }
+        this.page = new ResultColumns(kinds, 1);
+        this.exhausted = true;
+        this.complete = true;
+    }
+
+    /**
+     * Reads up to a page of rows from the result set. Call off the event dispatch thread.
+     * The returned page is only valid until the next call. The result set is closed once its
+     * last row has been read
+     */
+    public ResultColumns fetchPage() throws SQLException {
+        page.clear();
+        if (rs == null) {
+            return page;
+        }
+        synchronized (this) {
+            if (closed) {
+                return page;
+            }
+            fetching = true;
+        }
+        try {
+            if (pagesFetched++ > 0 && fetchSize < maxFetchSize && !exhausted) {
+                fetchSize = Math.min(maxFetchSize, fetchSize * 2);
+                rs.setFetchSize(fetchSize);
+            }
+            while (page.size() < pageSize && !exhausted) {
+                if (!rs.next()) {
+                    complete = true;
+                    break;
+                }
+                page.read(rs);
+            }
+        }
+        finally {
+            synchronized (this) {
+                fetching = false;
+            }
+        }
+        // Last page, or cancelled while reading it
+        if (page.size() < pageSize || exhausted) {
+            close();
+        }
+        return page;
+    }
+
+    // Appends rows returned by fetchPage. Call on the event dispatch thread
+    public void addPage(ResultColumns page) {
+        if (page.size() == 0) {
+            return;
+        }
+        int first = rows.size();
+        rows.addAll(page);
+        fireTableRowsInserted(first, rows.size() - 1);
+    }
+
+    // True while the result set may have rows that were not fetched yet
+    public boolean hasMore() {
+        return !exhausted;
+    }
+
+    // True once every row is loaded, as opposed to fetching being stopped early
+    public boolean isComplete() {
+        return complete;
+    }
+
+    // Copy of the rows loaded so far. Call on the event dispatch thread
+    public List<Object[]> getRows() {
+        ArrayList<Object[]> copy = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            copy.add(rows.getRow(i));
+        }
+        return copy;
+    }
+
+    // Result columns, without the result number
+    public String[] getColumns() {
+        return Arrays.copyOfRange(columnNames, 1, columnNames.length);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    // Rows the driver currently fetches per round trip
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Stops fetching, from any thread; rows already loaded stay in the table. A fetchPage running
+     * meanwhile has its statement cancelled, fails or returns early, and closes the result set
+     * itself (fetchPage, or its caller on failure); otherwise it is closed here
+     */
+    public synchronized void cancel() {
+        exhausted = true;
+        if (closed || rs == null) {
+            return;
+        }
+        if (!fetching) {
+            close();
+            return;
+        }
+        try {
+            rs.getStatement().cancel();
+        }
+        catch (SQLException e) {
+            System.err.println("Cannot cancel query: " + e.getMessage());
+        }
+    }
+
+    // Stops fetching and gives the connection back; rows already loaded stay in the table.
+    // Not while fetchPage runs on another thread (see cancel)
+    public synchronized void close() {
+        exhausted = true;
+        if (rs == null || closed) {
+            return;
+        }
+        closed = true;
+        try {
+            rs.close();
+        }
+        catch (SQLException e) {
+            System.err.println("Cannot close result set: " + e.getMessage());
+        }
+        if (con != null) {
+            try {
+                con.close();
+            }
+            catch (SQLException e) {
+                System.err.println("Cannot close connection: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == 0) {
+            return row + 1;
+        }
+        return rows.get(row, column - 1);
+    }
+}
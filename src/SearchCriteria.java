@@ -0,0 +1,121 @@
+import java.math.BigDecimal;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+
+/**
+ * The search criteria entered in the hw3 GUI, as typed by the user.
+ * Empty or null values mean the attribute was not specified.
+ */
+public class SearchCriteria {
+
+    // Run option: AND (true) or OR (false) between the sections
+    public boolean and = true;
+
+    // Genres, matching ANY or ALL of them
+    public Set<String> genres = new LinkedHashSet<>();
+    public boolean allGenres;
+
+    // Countries, always matching ANY of them
+    public Set<String> countries = new LinkedHashSet<>();
+
+    // Director name
+    public String director;
+
+    // Actors/actresses, matching ANY or ALL of them
+    public Set<String> actors = new LinkedHashSet<>();
+    public boolean allActors;
+
+    // Movie ratings: comparison operator and value for the average rating and review count
+    public String ratingOp = "=";
+    public String ratingValue;
+    public String countOp = "=";
+    public String countValue;
+
+    // Movie year, inclusive
+    public String fromYear;
+    public String toYear;
+
+    // Users' ratings, matching ANY or ALL of the specified fields
+    public String userId;
+    public String fromDate; // MM/DD/YYYY
+    public String toDate; // MM/DD/YYYY
+    public String userRatingOp = "=";
+    public String userRatingValue;
+    public boolean allUserFields = true;
+
+    // Users' tags: comma separated, matching ANY or ALL of them
+    public String tags;
+    public boolean allTags;
+
+    /**
+     * Returns a copy in a canonical form, so criteria that mean the same search build the same
+     * query: sets sorted, text trimmed, tags trimmed with empty ones dropped and the numbers in
+     * the numeric fields written the same way ("7.50" and "7.5", " 1995" and "1995")
+     */
+    public SearchCriteria normalized() {
+        SearchCriteria n = new SearchCriteria();
+        n.and = and;
+        n.genres = new TreeSet<>(genres);
+        n.allGenres = allGenres;
+        n.countries = new TreeSet<>(countries);
+        n.director = trim(director);
+        n.actors = new TreeSet<>(actors);
+        n.allActors = allActors;
+        n.ratingOp = ratingOp;
+        n.ratingValue = number(ratingValue);
+        n.countOp = countOp;
+        n.countValue = number(countValue);
+        n.fromYear = number(fromYear);
+        n.toYear = number(toYear);
+        n.userId = number(userId);
+        n.fromDate = trim(fromDate);
+        n.toDate = trim(toDate);
+        n.userRatingOp = userRatingOp;
+        n.userRatingValue = number(userRatingValue);
+        n.allUserFields = allUserFields;
+        if (tags != null) {
+            StringJoiner sj = new StringJoiner(",");
+            for (String tag : tags.split(",")) {
+                if (!tag.trim().isEmpty()) {
+                    sj.add(tag.trim());
+                }
+            }
+            n.tags = sj.toString();
+        }
+        n.allTags = allTags;
+        return n;
+    }
+
+    // True if no field is set, so the search returns the whole catalogue
+    public boolean matchesAll() {
+        return genres.isEmpty() && countries.isEmpty() && isEmpty(director) && actors.isEmpty()
+                && isEmpty(ratingValue) && isEmpty(countValue) && isEmpty(fromYear) && isEmpty(toYear)
+                && isEmpty(userId) && isEmpty(fromDate) && isEmpty(toDate) && isEmpty(userRatingValue)
+                && isEmpty(tags);
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+
+    // The number without redundant zeros, or the trimmed text if it is not a number
+    private static String number(String value) {
+        value = trim(value);
+        if (isEmpty(value)) {
+            return value;
+        }
+        try {
+            return new BigDecimal(value).stripTrailingZeros().toPlainString();
+        }
+        catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    // True if the value was not specified
+    public static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,188 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The SQL that differs between the databases the programs run on: Oracle, the database of the
+ * assignment, and H2, the embedded database (see EmbeddedDatabase). QueryBuilder and Populate
+ * ask the dialect of their connection for these pieces instead of writing Oracle SQL.
+ */
+public abstract class SqlDialect {
+
+    public static final SqlDialect ORACLE = new Oracle();
+    public static final SqlDialect H2 = new H2();
+
+    // The dialect of a JDBC URL; Oracle unless it is an H2 URL
+    public static SqlDialect forUrl(String url) {
+        return url != null && url.startsWith("jdbc:h2:") ? H2 : ORACLE;
+    }
+
+    public static SqlDialect of(Connection con) throws SQLException {
+        return forUrl(con.getMetaData().getURL());
+    }
+
+    public abstract String getName();
+
+    /**
+     * Aggregate joining the value of every row of a group with ", ", in orderBy order
+     */
+    public String listagg(String value, String orderBy) {
+        return "LISTAGG(" + value + ", ', ') WITHIN GROUP (ORDER BY " + orderBy + ")";
+    }
+
+    /**
+     * Condition true if column equals one of the values of list, a "(?,?,...)" list
+     */
+    public String anyOf(String column, String list) {
+        return column + " IN " + list;
+    }
+
+    /**
+     * A DATE from text in MM/DD/YYYY form, such as a '?' placeholder
+     */
+    public abstract String toDate(String text);
+
+    // Statement removing every row of a table
+    public String deleteAll(String table) {
+        return "DELETE FROM " + table;
+    }
+
+    /**
+     * Statement updating the optimizer statistics of a table, so a table just filled is not
+     * planned as if it were empty
+     */
+    public abstract String analyze(String table);
+
+    // Whether CREATE INDEX accepts expressions, not just columns
+    public boolean supportsExpressionIndexes() {
+        return false;
+    }
+
+    // Query returning the name of each index of the user that must be rebuilt, or null if the
+    // database has no such state
+    public String unusableIndexes() {
+        return null;
+    }
+
+    /**
+     * Asks the database for the plan of the query, with its values bound, and returns the
+     * (lower case) tables the plan reads in full rather than through an index
+     */
+    public abstract Set<String> fullScans(Connection con, SqlQuery query) throws SQLException;
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private static class Oracle extends SqlDialect {
+        @Override
+        public String getName() {
+            return "Oracle";
+        }
+
+        @Override
+        public String anyOf(String column, String list) {
+            return column + " = ANY" + list;
+        }
+
+        @Override
+        public String toDate(String text) {
+            return "TO_DATE(" + text + ", 'MM/DD/YYYY')";
+        }
+
+        @Override
+        public String analyze(String table) {
+            return "BEGIN DBMS_STATS.GATHER_TABLE_STATS(USER, '" + table.toUpperCase() + "'); END;";
+        }
+
+        @Override
+        public boolean supportsExpressionIndexes() {
+            return true;
+        }
+
+        @Override
+        public String unusableIndexes() {
+            return "SELECT index_name FROM user_indexes WHERE status = 'UNUSABLE'";
+        }
+
+        // EXPLAIN PLAN writes the plan into the session's PLAN_TABLE, under an id of our own
+        @Override
+        public Set<String> fullScans(Connection con, SqlQuery query) throws SQLException {
+            String id = "moviedb" + System.nanoTime() % 1000000000L;
+            try (PreparedStatement ps = con.prepareStatement(
+                    "EXPLAIN PLAN SET STATEMENT_ID = '" + id + "' FOR " + query.getSql())) {
+                query.bind(ps);
+                ps.execute();
+            }
+            Set<String> tables = new TreeSet<>();
+            try (PreparedStatement ps = con.prepareStatement("SELECT object_name FROM plan_table" +
+                    " WHERE statement_id = ? AND operation = 'TABLE ACCESS' AND options = 'FULL'")) {
+                ps.setString(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        tables.add(rs.getString(1).toLowerCase());
+                    }
+                }
+            }
+            try (PreparedStatement ps = con.prepareStatement("DELETE FROM plan_table WHERE statement_id = ?")) {
+                ps.setString(1, id);
+                ps.executeUpdate();
+            }
+            return tables;
+        }
+    }
+
+    // H2 has LISTAGG but not "= ANY (list)"; PARSEDATETIME works whatever its compatibility mode
+    private static class H2 extends SqlDialect {
+        // In the plan (unquoted, unlike the statement above it): a table read, e.g.
+        // "FROM PUBLIC.MOVIES M" or "LEFT OUTER JOIN PUBLIC.TAGS T"...
+        private static final Pattern TABLE = Pattern.compile("(?:FROM|JOIN) \\w+\\.(\\w+)\\b");
+        // ...and on the next line, how: a comment with no condition reads all rows
+        private static final Pattern FULL_ACCESS = Pattern.compile("\\s*/\\* [\\w.]+ \\*/\\s*");
+
+        @Override
+        public String getName() {
+            return "H2";
+        }
+
+        @Override
+        public String toDate(String text) {
+            return "PARSEDATETIME(" + text + ", 'MM/dd/yyyy')";
+        }
+
+        @Override
+        public String analyze(String table) {
+            return "ANALYZE TABLE " + table;
+        }
+
+        // EXPLAIN returns the plan as SQL text, each table followed by a comment naming how it is
+        // read: "/* PUBLIC.MOVIES.tableScan */", or an index with the condition looked up in it.
+        // An index without a condition is read from end to end, which is a full scan as well
+        @Override
+        public Set<String> fullScans(Connection con, SqlQuery query) throws SQLException {
+            Set<String> tables = new TreeSet<>();
+            try (PreparedStatement ps = con.prepareStatement("EXPLAIN " + query.getSql())) {
+                query.bind(ps);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String table = null;
+                        for (String line : rs.getString(1).split("\n")) {
+                            if (table != null && FULL_ACCESS.matcher(line).matches()) {
+                                tables.add(table);
+                            }
+                            Matcher m = TABLE.matcher(line);
+                            table = m.find() ? m.group(1).toLowerCase() : null;
+                        }
+                    }
+                }
+            }
+            return tables;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A SQL statement with '?' placeholders and the values to bind to them, in order.
+ * Queries of the same shape share the same SQL text whatever the values, so the database
+ * (and StatementCache) can reuse the parsed statement.
+ */
+public class SqlQuery {
+
+    private final String sql;
+    private final List<Object> params;
+
+    public SqlQuery(String sql, List<Object> params) {
+        this.sql = sql;
+        this.params = new ArrayList<>(params);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<Object> getParams() {
+        return params;
+    }
+
+    // Binds the values with the setter matching their type
+    public void bind(PreparedStatement ps) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            Object value = params.get(i);
+            if (value instanceof Integer) {
+                ps.setInt(i + 1, (Integer) value);
+            }
+            else if (value instanceof Double) {
+                ps.setDouble(i + 1, (Double) value);
+            }
+            else if (value instanceof String) {
+                ps.setString(i + 1, (String) value);
+            }
+            else {
+                ps.setObject(i + 1, value);
+            }
+        }
+    }
+
+    // The SQL followed by the bound values, for display
+    @Override
+    public String toString() {
+        if (params.isEmpty()) {
+            return sql;
+        }
+        StringBuilder sb = new StringBuilder(sql).append("\n\n-- Parameters:");
+        for (int i = 0; i < params.size(); i++) {
+            Object value = params.get(i);
+            sb.append("\n-- ").append(i + 1).append(": ");
+            sb.append(value instanceof String ? "'" + value + "'" : value);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,71 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used PreparedStatements of a connection, keyed by their SQL text,
+ * so running a query of the same shape again does not prepare (and hard parse) it again.
+ * Not thread safe, like the Connection it wraps.
+ */
+public class StatementCache {
+
+    private final Connection con;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private int hits;
+    private int misses;
+
+    public StatementCache(Connection con, int maxSize) {
+        this.con = con;
+        // Access ordered, so the eldest entry is the least recently used one
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    close(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Returns the cached statement for sql, preparing it on first use
+    public PreparedStatement get(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            hits++;
+            ps.clearParameters();
+            return ps;
+        }
+        misses++;
+        ps = con.prepareStatement(sql);
+        statements.put(sql, ps);
+        return ps;
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    public void clear() {
+        for (PreparedStatement ps : statements.values()) {
+            close(ps);
+        }
+        statements.clear();
+    }
+
+    private static void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        }
+        catch (SQLException e) {
+            System.err.println("Cannot close statement: " + e.getMessage());
+        }
+    }
+}
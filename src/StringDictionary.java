@@ -0,0 +1,103 @@
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The distinct values of one column of a data file, each decoded into a String once.
+ * Looking up the bytes of a value that was seen before returns the same String without
+ * allocating anything, so the 20k genre fields of movie_genres.dat become 20 Strings instead of
+ * 20k. Values are found by hashing their bytes in an open-addressing table and comparing the
+ * bytes with the chars of the String, which only works for single byte charsets: values of
+ * other charsets, and values that did not decode to one char per byte, are never kept.
+ * Once maxSize values are held, new ones are decoded but not kept either, which bounds the
+ * memory of columns that turn out to have few repeats.
+ * Not thread safe: each FieldTokenizer has its own.
+ */
+public class StringDictionary {
+
+    private final int maxSize;
+    // Slots of the table: the hash of each value's bytes and its String; null if empty
+    private int[] hashes;
+    private String[] values;
+    private int size;
+
+    public StringDictionary(int maxSize) {
+        this.maxSize = maxSize;
+        hashes = new int[64];
+        values = new String[64];
+    }
+
+    // Whether values in the charset can be kept, i.e. decode to one char per byte
+    public static boolean supports(Charset charset) {
+        return charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.US_ASCII);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The value of bytes[offset, offset + length), decoded with charset the first time
+     */
+    public String get(byte[] bytes, int offset, int length, Charset charset) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        int mask = values.length - 1;
+        int slot = mix(hash) & mask;
+        String value;
+        while ((value = values[slot]) != null) {
+            if (hashes[slot] == hash && equals(value, bytes, offset, length)) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        value = new String(bytes, offset, length, charset);
+        // Bytes that are not ASCII in an ASCII file decode to U+FFFD and would never be found
+        if (size < maxSize && supports(charset) && equals(value, bytes, offset, length)) {
+            hashes[slot] = hash;
+            values[slot] = value;
+            // At most half full, so probes stay short
+            if (++size * 2 > values.length) {
+                grow();
+            }
+        }
+        return value;
+    }
+
+    private static boolean equals(String value, byte[] bytes, int offset, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != (char) (bytes[offset + i] & 0xff)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Spreads the bits of the hash, whose low bits are poor for short values
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void grow() {
+        int[] oldHashes = hashes;
+        String[] oldValues = values;
+        hashes = new int[oldValues.length * 2];
+        values = new String[hashes.length];
+        int mask = values.length - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = mix(oldHashes[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.sql.*;
+import java.util.ArrayList;
+
+/**
+ * Fast replacement of all rows of a table, used by Populate instead of "DELETE FROM table".
+ * 1. Foreign keys of the table, and those of other tables referencing it, are disabled
+ * 2. Non-unique indexes of the table are marked UNUSABLE so the load does not maintain them row by row
+ * 3. The table is truncated, which writes no undo/redo for the old rows
+ * After the load, finish() rebuilds the indexes and enables the constraints again, each in one pass.
+ *
+ * Unique indexes are left alone since inserts fail while they are unusable. If any step is not
+ * allowed by the schema (privileges, objects in use, ...) the changes made so far are undone and
+ * prepare returns null, so the caller can fall back to a plain DELETE.
+ */
+public class TableReload {
+
+    private final Connection con;
+    private final String table;
+    private final ArrayList<String[]> disabledConstraints = new ArrayList<>(); // {table, constraint}
+    private final ArrayList<String> unusableIndexes = new ArrayList<>();
+
+    private TableReload(Connection con, String table) {
+        this.con = con;
+        this.table = table.toUpperCase();
+    }
+
+    /**
+     * Empties table for a bulk load. Returns null, with the table untouched, if it cannot be done here
+     */
+    public static TableReload prepare(Connection con, String table) {
+        TableReload reload = new TableReload(con, table);
+        try {
+            reload.disableConstraints();
+            reload.disableIndexes();
+            reload.execute("TRUNCATE TABLE " + reload.table);
+            return reload;
+        }
+        catch (SQLException e) {
+            System.out.println("Cannot truncate " + table + " (" + e.getMessage().trim()
+                    + "), deleting its rows instead");
+            reload.finish();
+            return null;
+        }
+    }
+
+    // Rebuilds the indexes and enables the constraints disabled by prepare
+    public void finish() {
+        for (String index : unusableIndexes) {
+            try {
+                execute("ALTER INDEX " + index + " REBUILD");
+            }
+            catch (SQLException e) {
+                System.err.println("Cannot rebuild index " + index + ": " + e.getMessage());
+            }
+        }
+        unusableIndexes.clear();
+        // Enable in reverse order: the table's own foreign keys first, then those referencing it
+        for (int i = disabledConstraints.size() - 1; i >= 0; i--) {
+            String[] constraint = disabledConstraints.get(i);
+            try {
+                execute("ALTER TABLE " + constraint[0] + " ENABLE CONSTRAINT " + constraint[1]);
+            }
+            catch (SQLException e) {
+                System.err.println("Cannot enable constraint " + constraint[1] + " on " + constraint[0]
+                        + ", the loaded rows may violate it: " + e.getMessage());
+            }
+        }
+        disabledConstraints.clear();
+    }
+
+    private void disableConstraints() throws SQLException {
+        // Foreign keys of other tables referencing this one prevent a truncate
+        String referencing = "SELECT C.table_name, C.constraint_name FROM user_constraints C, user_constraints P " +
+                "WHERE C.constraint_type = 'R' AND C.status = 'ENABLED' AND C.r_constraint_name = P.constraint_name " +
+                "AND P.table_name = ? AND C.table_name <> ?";
+        // Foreign keys of this table would be checked for every inserted row
+        String own = "SELECT table_name, constraint_name FROM user_constraints " +
+                "WHERE constraint_type = 'R' AND status = 'ENABLED' AND table_name = ?";
+        ArrayList<String[]> constraints = new ArrayList<>();
+        try (PreparedStatement ps = con.prepareStatement(referencing)) {
+            ps.setString(1, table);
+            ps.setString(2, table);
+            addRows(ps, constraints);
+        }
+        try (PreparedStatement ps = con.prepareStatement(own)) {
+            ps.setString(1, table);
+            addRows(ps, constraints);
+        }
+        for (String[] constraint : constraints) {
+            execute("ALTER TABLE " + constraint[0] + " DISABLE CONSTRAINT " + constraint[1]);
+            disabledConstraints.add(constraint);
+        }
+    }
+
+    private void disableIndexes() throws SQLException {
+        String sql = "SELECT index_name FROM user_indexes WHERE table_name = ? AND uniqueness = 'NONUNIQUE' " +
+                "AND status = 'VALID'";
+        ArrayList<String> indexes = new ArrayList<>();
+        try (PreparedStatement ps = con.prepareStatement(sql)) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    indexes.add(rs.getString(1));
+                }
+            }
+        }
+        if (indexes.isEmpty()) {
+            return;
+        }
+        execute("ALTER SESSION SET skip_unusable_indexes = TRUE");
+        for (String index : indexes) {
+            execute("ALTER INDEX " + index + " UNUSABLE");
+            unusableIndexes.add(index);
+        }
+    }
+
+    private void addRows(PreparedStatement ps, ArrayList<String[]> rows) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new String[] {rs.getString(1), rs.getString(2)});
+            }
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement stmt = con.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+}
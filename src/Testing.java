@@ -1,8 +1,21 @@
+import java.math.BigDecimal;
+import java.sql.*;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
 
 /**
  * Created by Johnny on 11/18/16.
+ * Also checks the in-memory search engine: MovieBitmap against a TreeSet on random sets, then,
+ * once Populate has loaded the dataset, the rows of MovieIndex against those of the database
+ * query (base and join-free) for sample searches. Prints one line per check; a difference is
+ * printed with the first rows that differ.
  */
 public class Testing {
 
@@ -12,5 +25,190 @@ public class Testing {
         Date date = new Date(2202272000000L);
         SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy");
         System.out.println(sdf.format(date).toString());
+
+        checkBitmaps();
+        checkIndex();
+    }
+
+    // and, or, contains and toArray on random sets, sparse and dense, across several containers
+    private static void checkBitmaps() {
+        Random random = new Random(42);
+        int failures = 0;
+        int checks = 200;
+        for (int i = 0; i < checks; i++) {
+            TreeSet<Integer> a = randomSet(random);
+            TreeSet<Integer> b = randomSet(random);
+            MovieBitmap x = bitmap(a);
+            MovieBitmap y = bitmap(b);
+            TreeSet<Integer> and = new TreeSet<>(a);
+            and.retainAll(b);
+            TreeSet<Integer> or = new TreeSet<>(a);
+            or.addAll(b);
+            int probe = random.nextInt(200000);
+            if (!same(x.and(y), and) || !same(x.or(y), or) || !same(x, a)
+                    || x.contains(probe) != a.contains(probe)) {
+                failures++;
+            }
+        }
+        System.out.println("MovieBitmap: " + (checks - failures) + " of " + checks + " random and/or checks passed");
+    }
+
+    // Up to ~20000 values below 200000: array containers, and bitmap containers when dense
+    private static TreeSet<Integer> randomSet(Random random) {
+        TreeSet<Integer> set = new TreeSet<>();
+        int size = random.nextInt(4) == 0 ? random.nextInt(20000) : random.nextInt(100);
+        int bound = random.nextBoolean() ? 200000 : 70000;
+        for (int i = 0; i < size; i++) {
+            set.add(random.nextInt(bound));
+        }
+        return set;
+    }
+
+    private static MovieBitmap bitmap(TreeSet<Integer> set) {
+        int[] values = new int[set.size()];
+        int i = 0;
+        for (int value : set) {
+            values[i++] = value;
+        }
+        return MovieBitmap.of(values);
+    }
+
+    private static boolean same(MovieBitmap bitmap, TreeSet<Integer> set) {
+        if (bitmap.cardinality() != set.size()) {
+            return false;
+        }
+        int i = 0;
+        int[] values = bitmap.toArray();
+        for (int value : set) {
+            if (values[i++] != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The rows MovieIndex returns for sample searches, against the database's, in each query mode
+    private static void checkIndex() {
+        ConnectionPool pool;
+        try {
+            pool = ConnectionPool.fromConnectionFile("Testing", 1);
+        }
+        catch (ClassNotFoundException e) {
+            System.out.println("MovieIndex: not checked, cannot find the database driver");
+            return;
+        }
+        try (Connection con = pool.getConnection()) {
+            MovieIndex index = MovieIndex.load(con);
+            SqlDialect dialect = SqlDialect.of(con);
+            for (Map.Entry<String, SearchCriteria> sample : samples().entrySet()) {
+                SearchCriteria criteria = sample.getValue().normalized();
+                for (boolean joinFree : new boolean[] {false, true}) {
+                    String name = String.format("MovieIndex: %-22s %-9s ", sample.getKey(),
+                            joinFree ? "join-free" : "base");
+                    if (!index.canServe(criteria, joinFree)) {
+                        System.out.println(name + "left to the database");
+                        continue;
+                    }
+                    List<String> expected = databaseRows(con, new QueryBuilder(criteria, joinFree, dialect).build());
+                    List<String> actual = new ArrayList<>();
+                    for (Object[] row : index.results(index.search(criteria))) {
+                        actual.add(normalize(row));
+                    }
+                    actual.sort(null);
+                    System.out.println(name + (actual.equals(expected) ? "same " + actual.size() + " rows"
+                            : "DIFFERENT: " + firstDifference(expected, actual)));
+                }
+            }
+        }
+        catch (SQLException e) {
+            System.out.println("MovieIndex: not checked, the database is not loaded");
+            while (e != null) {
+                System.out.println("Message: " + e.getMessage());
+                System.out.println("SQLState: " + e.getSQLState());
+                System.out.println("Vendor Error: " + e.getErrorCode());
+                e = e.getNextException();
+            }
+        }
+        finally {
+            pool.close();
+        }
+    }
+
+    // Rows of the query as normalized strings, sorted: neither engine promises an order
+    private static List<String> databaseRows(Connection con, SqlQuery query) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (PreparedStatement ps = con.prepareStatement(query.getSql())) {
+            query.bind(ps);
+            ps.setFetchSize(500);
+            try (ResultSet rs = ps.executeQuery()) {
+                Object[] row = new Object[rs.getMetaData().getColumnCount()];
+                while (rs.next()) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = rs.getObject(i + 1);
+                    }
+                    rows.add(normalize(row));
+                }
+            }
+        }
+        rows.sort(null);
+        return rows;
+    }
+
+    // Numbers compared by value, whatever their type (BigDecimal from the database, Double here)
+    private static String normalize(Object[] row) {
+        Object[] values = new Object[row.length];
+        for (int i = 0; i < row.length; i++) {
+            values[i] = row[i] instanceof Number
+                    ? new BigDecimal(row[i].toString()).stripTrailingZeros().toPlainString() : row[i];
+        }
+        return Arrays.toString(values);
+    }
+
+    private static String firstDifference(List<String> expected, List<String> actual) {
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            if (!expected.get(i).equals(actual.get(i))) {
+                return "database " + expected.get(i) + ", index " + actual.get(i);
+            }
+        }
+        return expected.size() + " rows from the database, " + actual.size() + " from the index";
+    }
+
+    // Searches on each section the index answers
+    private static Map<String, SearchCriteria> samples() {
+        Map<String, SearchCriteria> samples = new LinkedHashMap<>();
+
+        SearchCriteria genre = new SearchCriteria();
+        genre.genres.add("Drama");
+        samples.put("genre Drama", genre);
+
+        SearchCriteria genres = new SearchCriteria();
+        genres.genres.addAll(Arrays.asList("Action", "Adventure", "Sci-Fi"));
+        genres.allGenres = true;
+        samples.put("ALL of 3 genres", genres);
+
+        SearchCriteria countries = new SearchCriteria();
+        countries.countries.addAll(Arrays.asList("France", "Italy"));
+        samples.put("countries France,Italy", countries);
+
+        SearchCriteria director = new SearchCriteria();
+        director.director = "Steven Spielberg";
+        samples.put("director Spielberg", director);
+
+        SearchCriteria years = new SearchCriteria();
+        years.fromYear = "1990";
+        years.toYear = "1999";
+        samples.put("years 1990-1999", years);
+
+        SearchCriteria ratings = new SearchCriteria();
+        ratings.ratingOp = ">=";
+        ratings.ratingValue = "7.5";
+        ratings.countOp = ">";
+        ratings.countValue = "100";
+        samples.put("rating >= 7.5, > 100", ratings);
+
+        SearchCriteria tags = new SearchCriteria();
+        tags.tags = "classic,funny";
+        samples.put("ANY tag classic,funny", tags);
+        return samples;
     }
 }
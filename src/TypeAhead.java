@@ -0,0 +1,138 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.awt.event.*;
+import java.util.List;
+
+/**
+ * Shows completions from a NameIndex below a text field as the user types.
+ * UP/DOWN move through them, ENTER or a click puts the chosen name in the field, ESCAPE hides
+ * them. Until an index is set (it is loaded in the background) the field works as before.
+ */
+public class TypeAhead {
+
+    private static final int MAX_COMPLETIONS = 10;
+
+    private final JTextField field;
+    private final JPopupMenu popup = new JPopupMenu();
+    private final JList<String> list = new JList<>();
+    private NameIndex index;
+    private boolean accepting; // Setting the field text ourselves
+
+    public TypeAhead(JTextField field) {
+        this.field = field;
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setFocusable(false);
+        popup.setFocusable(false); // Keep typing in the field
+        popup.add(new JScrollPane(list));
+
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (!popup.isVisible()) {
+                    return;
+                }
+                int selected = list.getSelectedIndex();
+                int count = list.getModel().getSize();
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN:
+                        list.setSelectedIndex(Math.min(selected + 1, count - 1));
+                        list.ensureIndexIsVisible(list.getSelectedIndex());
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_UP:
+                        list.setSelectedIndex(Math.max(selected - 1, 0));
+                        list.ensureIndexIsVisible(list.getSelectedIndex());
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_ENTER:
+                        if (selected >= 0) {
+                            accept(list.getSelectedValue());
+                            e.consume();
+                        }
+                        break;
+                    case KeyEvent.VK_ESCAPE:
+                        popup.setVisible(false);
+                        e.consume();
+                        break;
+                }
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                popup.setVisible(false);
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int i = list.locationToIndex(e.getPoint());
+                if (i >= 0) {
+                    accept(list.getModel().getElementAt(i));
+                }
+            }
+        });
+    }
+
+    // Call on the event dispatch thread
+    public void setIndex(NameIndex index) {
+        this.index = index;
+    }
+
+    private void changed() {
+        if (accepting) {
+            return;
+        }
+        // Look the text up once the edit is complete
+        SwingUtilities.invokeLater(this::update);
+    }
+
+    private void update() {
+        String text = field.getText();
+        if (index == null || text.trim().isEmpty() || !field.isShowing()) {
+            popup.setVisible(false);
+            return;
+        }
+        List<String> completions = index.complete(text, MAX_COMPLETIONS);
+        if (completions.isEmpty()) {
+            popup.setVisible(false);
+            return;
+        }
+        list.setListData(completions.toArray(new String[0]));
+        list.setVisibleRowCount(completions.size());
+        list.setSelectedIndex(0);
+        // At least as wide as the field
+        popup.setPreferredSize(null);
+        Dimension size = popup.getPreferredSize();
+        popup.setPreferredSize(new Dimension(Math.max(field.getWidth(), size.width), size.height));
+        popup.show(field, 0, field.getHeight());
+    }
+
+    private void accept(String name) {
+        accepting = true;
+        try {
+            field.setText(name);
+        }
+        finally {
+            accepting = false;
+        }
+        popup.setVisible(false);
+    }
+}
@@ -1,17 +1,17 @@
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.sql.*;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.StringJoiner;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 /**
  * GUI program to allow user to query data from database
@@ -43,39 +43,6 @@ public class hw3 {
         new hw3();
     }
 
-    // Our query should always return the following columns:
-    // 1. Title: movies.title
-    // 2. Year: movies.year
-    // 3. Country: movie_countries.country
-    // 4. CriticsRating: (movies.rtAllCriticsRating + movies.rtTopCriticsRating) / 2
-    // 5. NumCriticsReview: movies.rtAllCriticsNumReviews + movies.rtTopCriticsNumReviews
-    // 6. AudienceRating: movies.rtAudienceRating
-    // 7. NumAudienceReviews: movies.rtAudienceNumReviews
-    // 8. Genre: movie_genres.genre
-    // 9. Users' tags: tags.value where tags.id = user_taggedmovies.id
-    // Our select clause never changes!
-    public static final String SELECT = "SELECT \ntitle, year, country, critics_Rating, critics_NumReviews, " +
-            "audience_Rating, audience_NumReviews,\n" +
-            "LISTAGG(case when g = 1 THEN genre END, ', ') WITHIN GROUP (ORDER BY genre) as genres,\n" +
-            "LISTAGG(case when t = 1 THEN tag END, ', ') WITHIN GROUP (ORDER BY tag) as tags\n" +
-            "FROM\n(\n\tSELECT\n\tM.movie_id as id, M.title as title,\n\tMG.genre as genre,\n\tT.value as tag,\n" +
-            "\tM.year as year,\n\tMC.country as country,\n" +
-            "\tROUND((M.rtAllCriticsRating + M.rtTopCriticsRating)/2, 1) as critics_Rating,\n" +
-            "\tM.rtAllCriticsNumReviews + M.rtTopCriticsNumReviews as critics_NumReviews,\n" +
-            "\tM.rtAudienceRating as audience_Rating,\n\tM.rtAudienceNumReviews as audience_NumReviews,\n" +
-            "\trow_number() over (partition by M.movie_id, MG.genre order by MG.genre) as g,\n" +
-            "\trow_number() over (partition by M.movie_id, T.value order by T.value) as t";
-    // Our base FROM clause
-    public static String FROM = "\n\tFROM\n" +
-            "\tmovies M left join movie_genres MG on M.movie_id = MG.movie_id\n" +
-            "\tleft join movie_genres MG1 on M.movie_id = MG1.movie_id\n" +
-            "\tleft join user_taggedmovies UTM on M.movie_id = UTM.movie_id\n" +
-            "\tleft join movie_countries MC on M.movie_id = MC.movie_id\n" +
-            "\tleft join tags T on UTM.tag_id = T.tag_id";
-    // Our WHERE clause does change, but this variable never does
-    public static final String GROUP = "\n)\nGROUP BY id, title, year, country, critics_Rating, " +
-            "critics_NumReviews, audience_Rating, audience_NumReviews";
-
     // Sets to store selected attributes for querying
     private HashSet<String> selectedGenres = new HashSet<>();
     private HashSet<String> selectedCountries = new HashSet<>();
@@ -128,20 +95,85 @@ public class hw3 {
     private JRadioButton andButton;
     private JRadioButton orButton;
 
+    // Run and cancel the search
+    private JButton runButton;
+    private JButton cancelButton;
+    private QueryWorker queryWorker; // The running or last search
+
     // Query and Results
     private JTextArea queryText;
-    private JTextArea resultsText;
+    private JTable resultsTable;
+    private JScrollPane resultsPane;
+    private ResultPageModel results; // Rows of the last search, fetched a page at a time
+    // Rows fetched per page (and per database round trip) while scrolling the results
+    private int pageSize = Integer.getInteger("hw3.pageSize", 200);
+    // Most rows fetched per round trip, reached as the user scrolls or right away for the whole catalogue
+    private int maxFetchSize = Integer.getInteger("hw3.maxFetchSize", 500);
+    // Resolve the matching movies first, then aggregate their genres and tags (see QueryBuilder).
+    // The default on the embedded database, which takes seconds over the joined rows of the other query
+    private boolean joinFree = Boolean.parseBoolean(
+            System.getProperty("hw3.joinFree", String.valueOf(EmbeddedDatabase.isEnabled())));
+    // Search movie_summary, where Populate precomputed the averages and lists, when it is up to
+    // date (checked at start; -Dhw3.summary=false searches the tables)
+    private boolean summary = Boolean.parseBoolean(System.getProperty("hw3.summary", "true"));
+    // Print the SQL of every search to the console (-Dhw3.printQueries=true)
+    private boolean printQueries = Boolean.getBoolean("hw3.printQueries");
+    private boolean running; // A search or page fetch is running
+    // Answer searches from an in-memory copy of the catalogue (-Dhw3.engine=memory)
+    private boolean memoryEngine = "memory".equalsIgnoreCase(System.getProperty("hw3.engine"));
+    private MovieIndex index; // Null until loaded; searches go to the database meanwhile
+    // Snapshot of data/ to load the index from, in milliseconds, instead of the database (see DatasetSnapshot)
+    private String snapshotFile = System.getProperty("hw3.snapshot");
+    // Complete results of recent searches. Sized in entries, seconds and rows per result
+    private ResultCache cache = new ResultCache(Integer.getInteger("hw3.cacheSize", 64),
+            Long.getLong("hw3.cacheTtl", 300) * 1000, Integer.getInteger("hw3.cacheMaxRows", 10000));
+    private String resultsKey; // Cache key of the shown results
+    // Genre, country, director and actor lists, loaded in the background from snapshots or the database
+    private PickLists pickLists = new PickLists(this::openConnection,
+            new File(System.getProperty("hw3.snapshotDir", "pick-lists")), 4);
 
     private String[] comparisonOperators =
-            {"=,<,>,≤,≥", "=", "<", ">", "<=", ">="}; // index0 is "None"
-
-    private Connection con;
+            {"=,<,>,\u2264,\u2265", "=", "<", ">", "<=", ">="}; // index0 is "None"
+
+    // Connections of the searches, the pick lists and the in-memory index; each one keeps its
+    // prepared statements, so a search of the same shape is not prepared again
+    private ConnectionPool pool;
+    private static final int POOL_SIZE = 8;
+
+    // Where the time of a search goes: building its SQL, executing it, up to its first page, and
+    // showing it in the table; plus how many rows it returned. Published over JMX (see Metrics)
+    private final Metrics metrics = Metrics.of("hw3");
+    private final Metrics.Histogram buildLatency = metrics.latency("search.build");
+    private final Metrics.Histogram executeLatency = metrics.latency("search.execute");
+    private final Metrics.Histogram firstRowLatency = metrics.latency("search.firstRow");
+    private final Metrics.Histogram renderLatency = metrics.latency("search.render");
+    private final Metrics.Histogram rowCounts = metrics.values("search.rows", "rows");
+    // Searches answered from the result cache, and those that went to the database
+    private final Metrics.Counter cacheHits = metrics.counter("search.cacheHits");
+    private final Metrics.Counter cacheMisses = metrics.counter("search.cacheMisses");
 
     public hw3() {
         try {
-            con = openConnection(); // Application only launches if our connection succeeds
-            DatabaseMetaData dbmd = con.getMetaData(); // Get DbMD to get information
+            pool = ConnectionPool.fromConnectionFile("hw3", POOL_SIZE);
+            if (EmbeddedDatabase.isEnabled()) {
+                // First run on this machine: load data/ into the embedded database
+                EmbeddedDatabase.populateIfEmpty(pool);
+            }
+            // Application only launches if our connection succeeds; it then waits in the pool
+            Connection con = openConnection();
+            try {
+                summary = summary && MovieSummary.isCurrent(con);
+            }
+            finally {
+                closeConnection(con);
+            }
+            if (!summary) {
+                System.out.println(MovieSummary.TABLE + " is not used, searching the tables");
+            }
             initGUI();
+            if (memoryEngine) {
+                loadIndex();
+            }
         } catch (SQLException e) {
             while (e != null) {
                 System.out.println("Message: " + e.getMessage());
@@ -154,27 +186,9 @@ public class hw3 {
         }
     }
 
-    private Connection openConnection() throws SQLException, ClassNotFoundException {
-        DriverManager.registerDriver(new oracle.jdbc.OracleDriver());
-        String host, port, dbName, userName, password;
-        try (BufferedReader br = new BufferedReader(new FileReader(new File("src/connection.txt")))) {
-            host = br.readLine().split(":")[1].trim();
-            port = br.readLine().split(":")[1].trim();
-            dbName = br.readLine().split(":")[1].trim();
-            userName = br.readLine().split(":")[1].trim();
-            password = br.readLine().split(":")[1].trim();
-        }
-        catch (IOException e) {
-            System.out.println("Connection.txt not found, using values defined in hw3.java");
-            host = "Johnny";
-            port = "1521";
-            dbName = "orcl";
-            userName = "scott";
-            password = "tiger";
-        }
-        String dbURL = "jdbc:oracle:thin:@" + host + ":" + port + ":" + dbName;
-        System.out.println("Connecting to: " + dbURL);
-        return DriverManager.getConnection(dbURL, userName, password);
+    // Borrows a connection of the pool; closing it returns it
+    private Connection openConnection() throws SQLException {
+        return pool.getConnection();
     }
 
     private void closeConnection(Connection con) {
@@ -185,343 +199,407 @@ public class hw3 {
         }
     }
 
-    // Return a list of distinct values of a column from a table
-    private ArrayList<String> getDistinctValues(Connection con, String table, String column) throws SQLException {
-        Statement s = con.createStatement();
-        String sql = "SELECT DISTINCT " + column + " FROM " + table + " ORDER BY " + column + " ASC";
-        s.execute(sql);
-        ResultSet rs = s.getResultSet();
-        ResultSetMetaData rsmd = rs.getMetaData();
-        ArrayList<String> result = new ArrayList<>();
-        while (rs.next()) {
-            result.add(rs.getString(1));
-        }
-        rs.close();
-        return result;
-    }
-
-
     /**
      * Parses through all fields and generates a query statement.
-     * Basically want to find movie_id that satisfies search criteria
+     * Basically want to find movie_id that satisfies search criteria.
+     * The query runs in the background; results are shown a page at a time
      */
-    private void runQuery() throws SQLException {
+    private void runQuery() {
         reset();
-        String sql = buildQuery();
-        System.out.println(sql);
-        queryText.setText(sql); // Set the query text area
-        Statement s = con.createStatement();
-        s.execute(sql);
-        ResultSet rs = s.getResultSet();
-        ResultSetMetaData rsmd = rs.getMetaData();
-        int colCount = rsmd.getColumnCount();
-        String[] colNames = new String[colCount]; // Get column names
-        for (int i = 0; i < colCount; i++) {
-            colNames[i] = rsmd.getColumnName(i+1);
+        // Criteria meaning the same search build the same query, and share a cache entry
+        SearchCriteria criteria = readCriteria().normalized();
+        long start = System.nanoTime();
+        SqlQuery query = new QueryBuilder(criteria, joinFree, pool.getDialect(), summary).build();
+        buildLatency.recordSince(start);
+        if (printQueries) {
+            System.out.println(query);
         }
-        int resultNum = 1;
-        while (rs.next()) {
-            resultsText.append("RESULT " + resultNum + "\n");
-            for (int i = 0; i < colCount; i++) {
-                String padded = String.format("%1$-25s", colNames[i]);
-                resultsText.append(padded + rs.getObject(i+1) + "\n");
-            }
-            resultNum++;
+        // Summary mode returns the rows of the join-free query
+        if (index != null && index.canServe(criteria, joinFree || summary)) {
+            searchIndex(criteria, query);
+            return;
         }
+        queryText.setText(query.toString()); // Set the query text area
+        // The whole catalogue is large enough to fetch in big round trips from the start
+        int fetchSize = criteria.matchesAll() ? maxFetchSize : pageSize;
+        queryWorker = new QueryWorker(query, ResultCache.key(query), fetchSize);
+        setRunning(true);
+        queryWorker.execute();
     }
 
+    // Answers the search from the in-memory index; it takes microseconds, so no worker is needed
+    private void searchIndex(SearchCriteria criteria, SqlQuery query) {
+        long start = System.nanoTime();
+        List<Object[]> rows = index.results(index.search(criteria));
+        long micros = (System.nanoTime() - start) / 1000;
+        queryText.setText("-- Answered from the in-memory index in " + micros + " us instead of:\n" + query);
+        rowCounts.record(rows.size());
+        results = new ResultPageModel(MovieIndex.COLUMNS, rows);
+        resultsTable.setModel(results);
+        setResultsTitle("Results: " + rows.size() + " (in-memory index)");
+    }
 
-    //=========================================================================
-    // The below methods parse through the GUI fields and builds our query
-    private String buildQuery() {
-        String op;
-        if (andButton.isSelected()) {
-            op = " AND ";
-        }
-        else op = " OR ";
-        String[] sections = {
-                processGenres(),
-                processCountries(),
-                processDirector(),
-                processActors(),
-                processMovieRatings(),
-                processMovieCounts(),
-                processMovieYear(),
-                processUserRatings(),
-                processTags()
-        };
-        boolean empty = true;
-        StringJoiner sj = new StringJoiner(op, "\n\tWHERE", "");
-        for (int i = 0; i < sections.length; i++) {
-            // our processXxx() functions return "_AND_()" or "_OR_()"
-            // So long as the length of the string is greater than 7,
-            // the user has selected an attribute for section Xxx
-            if (sections[i] != null) {
-                sj.add("\n" + sections[i]);
-                empty = false;
+    // Loads the in-memory index on its own connection while the GUI already works from the database
+    private void loadIndex() {
+        new SwingWorker<MovieIndex, Void>() {
+            @Override
+            protected MovieIndex doInBackground() throws SQLException {
+                if (snapshotFile != null) {
+                    try {
+                        DatasetSnapshot snapshot = DatasetSnapshot.open(new File(snapshotFile));
+                        if (snapshot.isCurrent()) {
+                            return MovieIndex.load(snapshot);
+                        }
+                        System.out.println(snapshotFile + " is older than data/, loading the index from the database");
+                    }
+                    catch (IOException e) {
+                        System.out.println("Cannot load the index from " + snapshotFile + ": " + e.getMessage());
+                    }
+                }
+                Connection indexCon = openConnection();
+                try {
+                    return MovieIndex.load(indexCon);
+                }
+                finally {
+                    closeConnection(indexCon);
+                }
             }
-        }
-        if (empty) {
-            return SELECT + FROM + GROUP;
-        }
-        return SELECT + FROM + sj.toString() + GROUP;
+
+            @Override
+            protected void done() {
+                try {
+                    index = get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException e) {
+                    System.out.println("In-memory index not loaded, searching the database only");
+                    if (e.getCause() instanceof SQLException) {
+                        printSQLException((SQLException) e.getCause());
+                    }
+                }
+            }
+        }.execute();
     }
 
-    private String processGenres() {
-        if (selectedGenres.isEmpty()) {
-            return null;
+    // Asks the database to stop the running search or page fetch; loaded rows stay in the table
+    private void cancelQuery() {
+        if (!running) {
+            return;
         }
-        if (genreAll.isSelected() && selectedGenres.size() > 1) {
-            // Match ALL of the genres selected
-            StringJoiner sj = new StringJoiner("\n\t\tINTERSECT\n", "", ")");
-            String s = "\t\tSELECT movie_id\n\t\tFROM movie_genres\n\t\tWHERE genre = ";
-            for (String genre : selectedGenres) {
-                sj.add(s + "'" + genre + "'");
-            }
-            return "\t(M.movie_id in\n\t\t(\n" + sj.toString() + ")";
+        // Only cancels: the worker reading the rows closes them and gives the connection back
+        if (queryWorker != null) {
+            queryWorker.cancelSearch();
         }
-        else {
-            // Match ANY of the genres selected
-            StringJoiner sj = new StringJoiner(",", "(", ")");
-            for (String genre : selectedGenres) {
-                sj.add("'" + genre + "'");
-            }
-            return "\t(MG1.genre in " + sj.toString() + ")";
+        if (results != null) {
+            results.cancel();
         }
     }
 
-    // Assumption: select movies that matches ANY country chosen since
-    // each movie is associated with at most one country
-    private String processCountries() {
-        if (selectedCountries.isEmpty()) {
-            return null;
-        }
-        StringJoiner sj = new StringJoiner(",", "(", ")");
-        for (String country : selectedCountries) {
-            sj.add("'" + country + "'");
-        }
-        return "\t(MC.country = ANY" + sj.toString() + ")";
+    // Only one search or page fetch runs at a time, so results never arrive out of order
+    private void setRunning(boolean running) {
+        this.running = running;
+        runButton.setEnabled(!running);
+        cancelButton.setEnabled(running);
     }
 
-    private String processDirector() {
-        String director = directorField.getText();
-        if (director == null || director.isEmpty()) {
-            return null;
+    // Fetches the next page of results once the user scrolls close to the last loaded row
+    private void loadMoreIfNeeded() {
+        if (running || results == null || !results.hasMore()) {
+            return;
         }
-        else {
-            FROM += "\n\tleft join movie_directors MD on M.movie_id = MD.movie_id";
-            return "\t(MD.director_name = '" + director + "')";
+        Rectangle visible = resultsTable.getVisibleRect();
+        int lastVisible = resultsTable.rowAtPoint(new Point(0, visible.y + visible.height - 1));
+        if (lastVisible < 0) {
+            lastVisible = results.getRowCount() - 1;
+        }
+        if (lastVisible >= results.getRowCount() - results.getPageSize() / 2) {
+            PageWorker worker = new PageWorker(results);
+            setRunning(true);
+            worker.execute();
         }
     }
 
-    // Assumption: select movies that matches ALL actors/actresses chosen
-    private String processActors() {
-        if (selectedActors.isEmpty()) {
-            return null;
+    private void showResultCount() {
+        if (results == null) {
+            setResultsTitle("Results");
         }
-        FROM += "\n\tleft join movie_actors MA on M.movie_id = MA.movie_id";
-        if (actorAll.isSelected() && selectedActors.size() > 1) {
-            // Match ALL of the actors selected
-            StringJoiner sj = new StringJoiner("\n\t\tINTERSECT\n", "", ")");
-            String s = "\t\tSELECT movie_id\n\t\tFROM movie_actors\n\t\tWHERE actor_name = ";
-            for (String actor : selectedActors) {
-                sj.add(s + "'" + actor + "'");
-            }
-            return "\t(M.movie_id in\n\t\t(\n" + sj.toString() + ")";
+        else if (results.hasMore()) {
+            setResultsTitle("Results: " + results.getRowCount() + " loaded, scroll for more");
         }
         else {
-            // Match ANY of the actors selected
-            StringJoiner sj = new StringJoiner(",", "(", ")");
-            for (String actor : selectedActors) {
-                sj.add("'" + actor + "'");
-            }
-            return "\t(MA.actor_name in " + sj.toString() + ")";
+            setResultsTitle("Results: " + results.getRowCount());
         }
     }
 
-    // Assumption: If user does not select comparison operator from combo box, use '='
-    private String processMovieRatings() {
-        String rating = ratingValue.getText();
-        if (rating == null || rating.isEmpty()) {
-            return null;
-        }
-        String op;
-        if (movieRatingsCompare.getSelectedIndex() == 0) {
-            op = "=";
-        }
-        else op = (String) movieRatingsCompare.getSelectedItem();
-        return "\t(ROUND((M.rtAllCriticsRating + M.rtTopCriticsRating + M.rtAudienceRating) / 3, 1) " +
-                op + " " + rating + ")";
+    private void setResultsTitle(String title) {
+        resultsPane.setBorder(BorderFactory.createTitledBorder(null, title, TitledBorder.LEFT, TitledBorder.TOP));
     }
 
-    // Assumption: If user does not select comparison operator from combo box, use '='
-    private String processMovieCounts() {
-        String count = ratingCount.getText();
-        if (count == null || count.isEmpty()) {
-            return null;
-        }
-        String op;
-        if (movieRatingsCountCompare.getSelectedIndex() == 0) {
-            op = "=";
+    // Keeps the shown results for the next identical search once all their rows are loaded
+    private void cacheIfComplete(ResultPageModel model) {
+        if (model == results && model.isComplete()) {
+            rowCounts.record(model.getRowCount());
+            cache.put(resultsKey, model.getColumns(), model.getRows());
         }
-        else op = (String) movieRatingsCountCompare.getSelectedItem();
-        return "\t(ROUND((M.rtAllCriticsNumReviews + M.rtTopCriticsNumReviews + M.rtAudienceNumReviews) / 3, 1) "
-                + op + " " + count + ")";
     }
 
-    // Assumption: From and to year values inputted are INCLUSIVE
-    private String processMovieYear() {
-        StringJoiner sj = new StringJoiner(" AND ", "\t(", ")");
-        String from = fromMovieYear.getText();
-        String to = toMovieYear.getText();
-        if ((from == null && to == null) || (from.isEmpty() && to.isEmpty())) {
-            return null;
-        }
-        if (!from.isEmpty()) {
-            sj.add("M.year >= " + from);
-        }
-        if (!to.isEmpty()) {
-            sj.add("M.year <= " + to);
+    // Changes whenever Populate loads a table, so cached results are dropped after a reload
+    private Object dataVersion(Connection con) {
+        try {
+            return ImportLog.lastLoaded(con);
         }
-        return sj.toString();
-    }
-
-    private String processUserID() {
-        String user = userID.getText();
-        if (user == null || user.isEmpty()) {
+        catch (SQLException e) {
+            // No import_files table: the tables were not loaded since it was introduced
             return null;
         }
-        return "\t(URM.user_id = " + user + ")";
     }
 
-    private String processFromDate() {
-        String from = userFromDate.getText();
-        if (from == null || from.isEmpty()) {
-            return null;
+    private void printSQLException(SQLException ex) {
+        while (ex != null) {
+            System.out.println("Message: " + ex.getMessage());
+            System.out.println("SQLState: " + ex.getSQLState());
+            System.out.println("Vendor Error: " + ex.getErrorCode());
+            ex = ex.getNextException();
         }
-        return "(URM.ts > TO_DATE('" + from + "', 'MM/DD/YYYY'))";
     }
 
-    private String processToDate() {
-        String to = userToDate.getText();
-        if (to == null || to.isEmpty()) {
-            return null;
+    // Executes a search off the event dispatch thread and shows its first page of results
+    private class QueryWorker extends SwingWorker<ResultPageModel, Void> {
+        private final SqlQuery query;
+        private final String key;
+        private final int fetchSize;
+        private volatile boolean cancelRequested;
+        // Guarded by this: the statement while it executes, then the rows it returned
+        private PreparedStatement executing;
+        private ResultPageModel fetching;
+        private ResultColumns firstPage;
+        private boolean cached;
+
+        QueryWorker(SqlQuery query, String key, int fetchSize) {
+            this.query = query;
+            this.key = key;
+            this.fetchSize = fetchSize;
         }
-        return "(URM.ts < TO_DATE('" + to + "', 'MM/DD/YYYY'))";
-    }
 
-    private String processDate() {
-        /*
-        return "\t(M.movie_id in\n\t\t(\n\t\tSELECT movie_id\n\t\tFROM user_ratedmovies" +
-                "\n\t\tWHERE rating " + op + " " + rating + "))";
-         */
-        String from = processFromDate();
-        String to = processToDate();
-        String s = "\t(M.movie_id in\n\t\t(\n\t\tSELECT DISTINCT movie_id\n\t\tFROM user_ratedmovies" +
-                "\n\t\tWHERE ";
-        if (from == null && to == null) {
-            return null;
+        // Called on the event dispatch thread. Never touches the connection once the worker gave it back
+        synchronized void cancelSearch() {
+            cancelRequested = true;
+            if (executing != null) {
+                try {
+                    executing.cancel();
+                }
+                catch (SQLException e) {
+                    System.err.println("Cannot cancel query: " + e.getMessage());
+                }
+            }
+            else if (fetching != null) {
+                fetching.cancel();
+            }
         }
-        if (from == null) {
-            return s + to + "\n\t)";
+
+        @Override
+        protected ResultPageModel doInBackground() throws SQLException {
+            long start = System.nanoTime();
+            // The results keep the connection until their last row is read
+            Connection con = openConnection();
+            ResultPageModel model = null;
+            try {
+                cache.validate(dataVersion(con));
+                ResultCache.Entry entry = cache.get(key);
+                (entry != null ? cacheHits : cacheMisses).increment();
+                if (entry != null) {
+                    cached = true;
+                    ResultPageModel preloaded = new ResultPageModel(entry.columns, entry.rows);
+                    firstPage = preloaded.fetchPage();
+                    return preloaded;
+                }
+                // Same search shape, same SQL text: the pool returns the already prepared statement
+                PreparedStatement ps = con.prepareStatement(query.getSql());
+                query.bind(ps);
+                // Rows per round trip; at least the first page is fetched in one round trip
+                ps.setFetchSize(fetchSize);
+                synchronized (this) {
+                    if (cancelRequested) {
+                        throw new SQLException("Search cancelled");
+                    }
+                    executing = ps;
+                }
+                long executeStart = System.nanoTime();
+                ResultSet rs = ps.executeQuery();
+                executeLatency.recordSince(executeStart);
+                model = new ResultPageModel(rs, pageSize, maxFetchSize, con);
+                synchronized (this) {
+                    executing = null;
+                    fetching = model;
+                }
+                if (cancelRequested) {
+                    model.cancel();
+                }
+                firstPage = model.fetchPage();
+                firstRowLatency.recordSince(start);
+                return model;
+            }
+            catch (SQLException | RuntimeException e) {
+                if (model != null) {
+                    model.close();
+                }
+                throw e;
+            }
+            finally {
+                synchronized (this) {
+                    executing = null;
+                    fetching = null;
+                }
+                if (model == null) {
+                    closeConnection(con);
+                }
+            }
         }
-        if (to == null) {
-            return s + from + "\n\t)";
+
+        @Override
+        protected void done() {
+            long start = System.nanoTime();
+            setRunning(false);
+            try {
+                results = get();
+                resultsKey = key;
+                resultsTable.setModel(results);
+                results.addPage(firstPage);
+                // Queued behind the repaint of the table, so it runs once the rows are painted
+                SwingUtilities.invokeLater(() -> renderLatency.recordSince(start));
+                if (cancelRequested) {
+                    setResultsTitle("Results: search cancelled");
+                }
+                else if (cached) {
+                    setResultsTitle("Results: " + results.getRowCount() + " (cached)");
+                }
+                else {
+                    cacheIfComplete(results);
+                    showResultCount();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {
+                if (cancelRequested) {
+                    setResultsTitle("Results: search cancelled");
+                    return;
+                }
+                setResultsTitle("Results: search failed");
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    printSQLException((SQLException) cause);
+                }
+                else {
+                    System.err.println("Search failed: " + cause);
+                }
+            }
         }
-        return s + from + " AND " + to + "\n\t\t))";
     }
 
+    // Fetches the next page of the current results off the event dispatch thread
+    private class PageWorker extends SwingWorker<ResultColumns, Void> {
+        private final ResultPageModel model;
 
-    private String processUserRatingValue() {
-        String rating = userRatingValue.getText();
-        if (rating == null || rating.isEmpty()) {
-            return null;
+        PageWorker(ResultPageModel model) {
+            this.model = model;
         }
-        String op;
-        if (userRatingCompare.getSelectedIndex() == 0) {
-            op = "=";
-        }
-        else op = (String) userRatingCompare.getSelectedItem();
-        return "\t(URM.rating " + op + " " + rating + ")";
-    }
 
-    private String processTags() {
-        String tags = tagText.getText();
-        if (tags == null || tags.isEmpty()) {
-            return null;
-        }
-        String[] values = tags.split(",");
-        String s = "\t\tSELECT DISTINCT UTM.movie_id\n\t\tFROM user_taggedmovies UTM, tags T\n" +
-                "\t\tWHERE UTM.tag_id = T.tag_id AND T.value = ";
-        if (tagAll.isSelected() && values.length > 1) {
-            StringJoiner sj = new StringJoiner("\n\t\tINTERSECT\n","",")");
-            for (String tag : values) {
-                // SELECT ... FROM ... WHERE ... AND T.value = 'tag'
-                sj.add(s + "'" + tag + "'");
+        @Override
+        protected ResultColumns doInBackground() throws SQLException {
+            try {
+                return model.fetchPage();
             }
-            return "\t(M.movie_id in\n\t\t(\n" + sj.toString() + ")";
-        }
-        else {
-            StringJoiner sj = new StringJoiner(",", "(", ")");
-            for (String tag : values) {
-                sj.add("'" + tag + "'");
+            catch (SQLException | RuntimeException e) {
+                // Cancelled or failed: give the connection back now that no fetch uses it
+                model.close();
+                throw e;
             }
-            return "\t(T.value in " + sj.toString() + ")";
         }
-    }
 
-    private String processUserRatings() {
-        boolean empty = true;
-        String[] fields =
-                {
-                        processUserID(),
-                        processDate(),
-                        processUserRatingValue()
-                };
-        String op;
-        if (userAll.isSelected()) {
-            op = " AND\n";
-        }
-        else op = " OR\n";
-        StringJoiner sj = new StringJoiner(op);
-        for (int i = 0; i < fields.length; i++) {
-            if (fields[i] != null) {
-                empty = false;
-                sj.add(fields[i]);
+        @Override
+        protected void done() {
+            setRunning(false);
+            try {
+                model.addPage(get());
+                cacheIfComplete(model);
+                showResultCount();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e) {
+                // Cancelled or failed: keep the rows we have
+                showResultCount();
+                if (e.getCause() instanceof SQLException) {
+                    printSQLException((SQLException) e.getCause());
+                }
             }
         }
-        if (empty) {
-            return null;
+    }
+
+
+    //=========================================================================
+    // The below methods parse through the GUI fields and builds our query
+    // Collects the search criteria from the GUI fields
+    private SearchCriteria readCriteria() {
+        SearchCriteria criteria = new SearchCriteria();
+        criteria.and = andButton.isSelected();
+        criteria.genres.addAll(selectedGenres);
+        criteria.allGenres = genreAll.isSelected();
+        criteria.countries.addAll(selectedCountries);
+        criteria.director = directorField.getText();
+        criteria.actors.addAll(selectedActors);
+        criteria.allActors = actorAll.isSelected();
+        criteria.ratingOp = selectedOperator(movieRatingsCompare);
+        criteria.ratingValue = ratingValue.getText();
+        criteria.countOp = selectedOperator(movieRatingsCountCompare);
+        criteria.countValue = ratingCount.getText();
+        criteria.fromYear = fromMovieYear.getText();
+        criteria.toYear = toMovieYear.getText();
+        criteria.userId = userID.getText();
+        criteria.fromDate = userFromDate.getText();
+        criteria.toDate = userToDate.getText();
+        criteria.userRatingOp = selectedOperator(userRatingCompare);
+        criteria.userRatingValue = userRatingValue.getText();
+        criteria.allUserFields = userAll.isSelected();
+        criteria.tags = tagText.getText();
+        criteria.allTags = tagAll.isSelected();
+        return criteria;
+    }
+
+    // Assumption: If user does not select comparison operator from combo box, use '='
+    private String selectedOperator(JComboBox<String> compare) {
+        if (compare.getSelectedIndex() == 0) {
+            return "=";
         }
-        FROM += ",\n\tuser_ratedmovies URM";
-        return "\t(URM.movie_id = M.movie_id) AND\n" + sj.toString();
+        return (String) compare.getSelectedItem();
     }
 
 
     // Call after a query runs to clear all fields and data
     private void reset() {
-        // Reset our query clause
-        FROM = "\n\tFROM\n" +
-                "\tmovies M left join movie_genres MG on M.movie_id = MG.movie_id\n" +
-                "\tleft join movie_genres MG1 on M.movie_id = MG1.movie_id\n" +
-                "\tleft join user_taggedmovies UTM on M.movie_id = UTM.movie_id\n" +
-                "\tleft join movie_countries MC on M.movie_id = MC.movie_id\n" +
-                "\tleft join tags T on UTM.tag_id = T.tag_id";
-        // Clear the text area
+        // Clear the text area and the results of the last search
         queryText.setText("");
-        resultsText.setText("");
+        if (results != null) {
+            results.close();
+            results = null;
+        }
+        resultsTable.setModel(new DefaultTableModel());
+        showResultCount();
     }
 
     //=========================================================================
     // The methods below create our gui
+    // The window shows right away; the pick lists fill in as they are loaded
     private void initGUI() throws SQLException {
         initFrame(); // Create parent frame
-        ArrayList<String> directors = getDistinctValues(con, "movie_directors", "director_name");
-        ArrayList<String> actors = getDistinctValues(con, "movie_actors", "actor_name");
-        directorSearchFrame = createSearchFrame(directors, true);
-        actorSearchFrame = createSearchFrame(actors, false);
-        JPanel top = initAttributePane(getDistinctValues(con, "movie_genres", "genre"),
-                getDistinctValues(con, "movie_countries", "country"));
+        directorSearchFrame = createSearchFrame("movie_directors", "director_name", true);
+        actorSearchFrame = createSearchFrame("movie_actors", "actor_name", false);
+        JPanel top = initAttributePane();
         JPanel bot = initRunPane();
         frame.add(top);
         frame.add(bot);
@@ -540,18 +618,20 @@ public class hw3 {
             @Override
             public void windowClosing(WindowEvent e) {
                 super.windowClosing(e);
-                closeConnection(con);
+                System.out.println(pool);
+                System.out.println(metrics);
+                pool.close();
                 System.exit(0);
             }
         };
         frame.addWindowListener(onClose);
     }
 
-    private JPanel initAttributePane(ArrayList<String> genres, ArrayList<String> countries) {
+    private JPanel initAttributePane() {
         JPanel panel = new JPanel(new FlowLayout());
         panel.setPreferredSize(new Dimension(1200, 400));
-        panel.add(initGenrePane(genres));
-        panel.add(initCountryPane(countries));
+        panel.add(initGenrePane());
+        panel.add(initCountryPane());
         panel.add(initDirectorCastPane());
         panel.add(initMovieRatingYearPane());
         panel.add(initUserTagsRatingsPane());
@@ -559,7 +639,7 @@ public class hw3 {
     }
 
     // Responsible for creating a list of checkboxes representing the movie genres
-    private JPanel initGenrePane(ArrayList<String> genres) {
+    private JPanel initGenrePane() {
         JPanel panel = new JPanel();
         panel.setLayout(new GridBagLayout());
         panel.setPreferredSize(new Dimension(200, 400));
@@ -578,7 +658,7 @@ public class hw3 {
         bp.add(genreAny);
         bp.add(genreAll);
 
-        JScrollPane sp = createCheckboxList(genres, selectedGenres);
+        JScrollPane sp = createCheckboxList("movie_genres", "genre", selectedGenres);
         sp.setPreferredSize(new Dimension(175, 300));
 
         gbc.gridx = 0;
@@ -590,8 +670,8 @@ public class hw3 {
     }
 
     // Responsible for creating a list of countries that movies were made in
-    private JScrollPane initCountryPane(ArrayList<String> countries) {
-        JScrollPane sp = createCheckboxList(countries, selectedCountries);
+    private JScrollPane initCountryPane() {
+        JScrollPane sp = createCheckboxList("movie_countries", "country", selectedCountries);
         sp.setPreferredSize(new Dimension(250, 400));
         sp.setBorder(BorderFactory.createTitledBorder(null, "Countries", TitledBorder.CENTER, TitledBorder.TOP));
         sp.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
@@ -617,6 +697,7 @@ public class hw3 {
         // 2. Text field for user to input a director's name
         directorField = new JTextField();
         directorField.setPreferredSize(new Dimension(150, 25));
+        attachTypeAhead(directorField, "movie_directors", "director_name");
         gbc.gridx = 0;
         gbc.gridy = 1;
         panel.add(directorField, gbc);
@@ -635,6 +716,7 @@ public class hw3 {
         // 2. Text field for user to input an actor's name
         actorField = new JTextField();
         actorField.setPreferredSize(new Dimension(150, 25));
+        attachTypeAhead(actorField, "movie_actors", "actor_name");
         gbc.gridx = 0;
         gbc.gridy = 3;
         panel.add(actorField, gbc);
@@ -966,17 +1048,25 @@ public class hw3 {
     }
 
     private JScrollPane initResultsPane() {
-        resultsText = new JTextArea();
-        resultsText.setFont(new Font("monospaced", Font.PLAIN, 12));
-        resultsText.setEditable(false); // Do not let user type in stuff
-        JScrollPane sp = new JScrollPane(resultsText);
-        sp.setBorder(BorderFactory.createTitledBorder(null, "Results", TitledBorder.LEFT, TitledBorder.TOP));
-        sp.setPreferredSize(new Dimension(550, 400));
-        return sp;
+        resultsTable = new JTable();
+        resultsTable.setFont(new Font("monospaced", Font.PLAIN, 12));
+        resultsTable.setAutoResizeMode(JTable.AUTO_RESIZE_OFF); // Long genre/tag lists scroll horizontally
+        resultsTable.setDefaultEditor(Object.class, null); // Do not let user type in stuff
+        resultsPane = new JScrollPane(resultsTable);
+        resultsPane.setPreferredSize(new Dimension(550, 400));
+        setResultsTitle("Results");
+        // Load further pages as the user scrolls down
+        resultsPane.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener() {
+            @Override
+            public void adjustmentValueChanged(AdjustmentEvent e) {
+                loadMoreIfNeeded();
+            }
+        });
+        return resultsPane;
     }
 
     private JPanel initOptionsPane() throws SQLException {
-        JPanel panel = new JPanel(new GridLayout(3, 0, 0, 0));
+        JPanel panel = new JPanel(new GridLayout(4, 0, 0, 0));
         panel.setPreferredSize(new Dimension(75, 400));
         panel.setBorder(BorderFactory.createTitledBorder(null, "<html>Run<br>Options</html>", TitledBorder.LEFT, TitledBorder.TOP));
         andButton = new JRadioButton("AND");
@@ -988,7 +1078,7 @@ public class hw3 {
         bg.add(andButton);
         bg.add(orButton);
 
-        JButton runButton = new JButton("RUN");
+        runButton = new JButton("RUN");
         runButton.setPreferredSize(new Dimension(50, 50));
         runButton.addActionListener(new ActionListener() {
             @Override
@@ -996,30 +1086,44 @@ public class hw3 {
                 try {
                     runQuery();
                 }
-                catch (SQLException ex) {
-                    while (ex != null) {
-                        System.out.println("Message: " + ex.getMessage());
-                        System.out.println("SQLState: " + ex.getSQLState());
-                        System.out.println("Vendor Error: " + ex.getErrorCode());
-                        ex = ex.getNextException();
-                    }
+                catch (IllegalArgumentException ex) {
+                    // A numeric field does not hold a number
+                    JOptionPane.showMessageDialog(frame, ex.getMessage(), "Invalid search",
+                            JOptionPane.WARNING_MESSAGE);
                 }
             }
         });
 
+        cancelButton = new JButton("STOP");
+        cancelButton.setPreferredSize(new Dimension(50, 50));
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancelQuery();
+            }
+        });
+
         panel.add(andButton);
         panel.add(orButton);
         panel.add(runButton);
+        panel.add(cancelButton);
         return panel;
     }
 
-    // Method to create a generic checkbox list that stores checked items in specified set
-    private JScrollPane createCheckboxList(ArrayList<String> list, HashSet<String> selected) {
-        CheckboxListItem[] items = new CheckboxListItem[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            items[i] = new CheckboxListItem((list.get(i)));
-        }
-        JList<CheckboxListItem> l = new JList<>(items);
+    // Method to create a generic checkbox list of the values of table.column that stores checked items in
+    // specified set. The items are added once loaded
+    private JScrollPane createCheckboxList(String table, String column, HashSet<String> selected) {
+        JList<CheckboxListItem> l = new JList<>();
+        pickLists.load(table, column, values -> SwingUtilities.invokeLater(() -> {
+            CheckboxListItem[] items = new CheckboxListItem[values.size()];
+            for (int i = 0; i < values.size(); i++) {
+                items[i] = new CheckboxListItem(values.get(i));
+                // Keep what was checked if the list is loaded again
+                items[i].setSelected(selected.contains(values.get(i)));
+            }
+            l.setListData(items);
+        }));
         l.setCellRenderer(new CheckboxListRenderer());
         l.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
@@ -1043,6 +1147,26 @@ public class hw3 {
         return new JScrollPane(l);
     }
 
+    // Completes names typed in the field from table.column, loaded the first time the field gets focus
+    private void attachTypeAhead(JTextField field, String table, String column) {
+        TypeAhead typeAhead = new TypeAhead(field);
+        field.addFocusListener(new FocusAdapter() {
+            private boolean loading;
+
+            @Override
+            public void focusGained(FocusEvent e) {
+                if (loading) {
+                    return;
+                }
+                loading = true;
+                pickLists.load(table, column, values -> {
+                    NameIndex index = new NameIndex(values); // Built on the loader thread
+                    SwingUtilities.invokeLater(() -> typeAhead.setIndex(index));
+                });
+            }
+        });
+    }
+
     private JButton createButtonToPopup(JFrame f) {
         JButton button = new JButton("F");
         button.setPreferredSize(new Dimension(25, 25));
@@ -1057,25 +1181,26 @@ public class hw3 {
         return button;
     }
 
-    // Creates a list of selectable items for director/actors, depending on the forDirector boolean
-    private JFrame createSearchFrame(ArrayList<String> list, boolean forDirector) {
+    // Creates a list of selectable items for director/actors, depending on the forDirector boolean.
+    // The values of table.column are only loaded when the frame is first opened
+    private JFrame createSearchFrame(String table, String column, boolean forDirector) {
         JFrame searchFrame = new JFrame();
         searchFrame.setLayout(new FlowLayout());
         searchFrame.setSize(250, 300);
         searchFrame.setResizable(false);
-        String[] items = new String[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            items[i] = list.get(i);
-        }
-        JList<String> l = new JList<>(items);
+        JList<String> l = new JList<>();
+        // Fixed cell size, so a list of ~100k names does not measure every name
+        l.setPrototypeCellValue("Xxxxxxxxxxxxxxxxxxxxxxxxxxxxxx");
+        String title;
         if (forDirector) {
-            searchFrame.setTitle("Directors");
+            title = "Directors";
             l.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         }
         else {
-            searchFrame.setTitle("Actors/Actresses");
+            title = "Actors/Actresses";
             l.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         }
+        searchFrame.setTitle(title + " (loading...)");
         JScrollPane listPane = new JScrollPane(l);
         listPane.setPreferredSize(new Dimension(225, 200));
         listPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
@@ -1103,6 +1228,15 @@ public class hw3 {
             }
         });
         WindowListener onClose = new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                // First time the frame is shown
+                pickLists.load(table, column, values -> SwingUtilities.invokeLater(() -> {
+                    l.setListData(values.toArray(new String[0]));
+                    searchFrame.setTitle(title);
+                }));
+            }
+
             @Override
             public void windowClosing(WindowEvent e) {
                 super.windowClosing(e);